@@ -0,0 +1,85 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency limit discovered from the calls' outcomes (AIMD). While
+ * response times stay within latencyTolerance times their long term average
+ * and the limit is in use, every call adds 1/limit to it, i.e. about one per
+ * round trip. A slower call or a failure cuts it by a tenth.
+ */
+class AdaptiveConcurrencyLimit {
+
+	private static final double BACKOFF_RATIO = 0.9;
+	private static final double BASELINE_WEIGHT = 0.01;
+	private static final double MIN_LIMIT = 1;
+
+	private final AtomicLong limit;
+	private final AtomicLong baseline = new AtomicLong(Double.doubleToLongBits(0));
+	private final double maxLimit;
+	private final double latencyTolerance;
+
+	AdaptiveConcurrencyLimit(int initialLimit, int maxLimit, double latencyTolerance) {
+		this.maxLimit = Math.max(maxLimit, MIN_LIMIT);
+		this.limit = new AtomicLong(Double.doubleToLongBits(Math.max(MIN_LIMIT,
+				Math.min(initialLimit, this.maxLimit))));
+		this.latencyTolerance = latencyTolerance;
+	}
+
+	/**
+	 * @param inFlight
+	 *            calls in flight when the call completed, itself included
+	 */
+	void onSample(long duration, int inFlight) {
+		double average = updateBaseline(duration);
+		if (duration > average * latencyTolerance) {
+			backOff();
+			return;
+		}
+		while (true) {
+			long currentBits = limit.get();
+			double current = Double.longBitsToDouble(currentBits);
+			if (inFlight * 2 < current || current >= maxLimit) {
+				return;
+			}
+			double next = Math.min(maxLimit, current + 1 / current);
+			if (limit.compareAndSet(currentBits, Double.doubleToLongBits(next))) {
+				return;
+			}
+		}
+	}
+
+	void onDrop() {
+		backOff();
+	}
+
+	int get() {
+		return (int) Double.longBitsToDouble(limit.get());
+	}
+
+	private void backOff() {
+		while (true) {
+			long currentBits = limit.get();
+			double next = Math.max(MIN_LIMIT, Double.longBitsToDouble(currentBits) * BACKOFF_RATIO);
+			if (limit.compareAndSet(currentBits, Double.doubleToLongBits(next))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return long term average response time before this sample, the
+	 *         sample itself for the first one
+	 */
+	private double updateBaseline(long duration) {
+		while (true) {
+			long currentBits = baseline.get();
+			double current = Double.longBitsToDouble(currentBits);
+			double next = current == 0 ? duration : current + BASELINE_WEIGHT * (duration - current);
+			if (baseline.compareAndSet(currentBits, Double.doubleToLongBits(next))) {
+				return current == 0 ? duration : current;
+			}
+		}
+	}
+
+}
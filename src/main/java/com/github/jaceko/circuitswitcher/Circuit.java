@@ -1,5 +1,7 @@
 package com.github.jaceko.circuitswitcher;
 
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
@@ -7,51 +9,504 @@ import org.slf4j.LoggerFactory;
 
 public class Circuit {
 	private static final Logger LOG = LoggerFactory.getLogger(Circuit.class);
-	private final int failureThreshold;
-	private final long resetTimeout;
+	private static final long TIME_WINDOW_BUCKET = 1000;
+	private static final int MAX_TIME_WINDOW_BUCKETS = 60;
+
+	/**
+	 * Trial period of a call that holds no trial permit.
+	 */
+	public static final long NO_TRIAL = 0;
+	private final CircuitConfig config;
 	private final AtomicReference<CircuitState> circuitState = new AtomicReference<CircuitState>();
 	private final String targetAddress;
 
+	/*
+	 * Every circuit owns one instance of each state. Transitions only reset
+	 * the primitive counters of the target state and swap the reference, so
+	 * switching states does not allocate. As the state's fields are written
+	 * after the swap, a thread leaving the open state only clears the trip
+	 * of the period it left, never one recorded by a later trip.
+	 */
+	private final ClosedState closed;
+	private final CircuitOpen open;
+	private final CircuitHalfOpen halfOpen;
+
+	/**
+	 * Tracks how many of the recent calls were slow, null when slow calls are
+	 * not detected.
+	 */
+	private final OutcomeWindow slowCalls;
+
+	private final AtomicInteger failedProbes = new AtomicInteger(0);
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+	private final PeakEwma latency;
+	private final Random random = new Random();
+	private volatile int weight = 1;
+	private final ErrorRate errorRate;
+	private volatile EjectionPolicy ejectionPolicy;
+	private boolean shared;
+
+	/**
+	 * Null unless the concurrency limit adapts to the target.
+	 */
+	private final AdaptiveConcurrencyLimit concurrencyLimit;
+	private final CircuitMetrics metrics = new CircuitMetrics();
+
 	public Circuit(String targetAddress, int failureThreshold, long resetTimeout) {
+		this(targetAddress, new CircuitConfig(failureThreshold, resetTimeout));
+	}
+
+	public Circuit(String targetAddress, CircuitConfig config) {
 		this.targetAddress = targetAddress;
-		this.failureThreshold = failureThreshold;
-		this.resetTimeout = resetTimeout;
-		circuitState.set(new CircuitClosed());
+		this.config = new CircuitConfig(config);
+		this.closed = newClosedState(this.config);
+		this.open = new CircuitOpen(this.config.getClock());
+		this.halfOpen = new CircuitHalfOpen(this.config.getClock());
+		this.concurrencyLimit = this.config.isAdaptiveConcurrency() ? new AdaptiveConcurrencyLimit(
+				this.config.getInitialConcurrencyLimit(), this.config.getMaxConcurrencyLimit(),
+				this.config.getLatencyTolerance()) : null;
+		this.errorRate = new ErrorRate(this.config.getSlidingWindowSize());
+		this.latency = new PeakEwma(this.config.getLatencyDecayTime(), this.config.getClock());
+		this.slowCalls = this.config.getSlowCallDurationThreshold() > 0 ? new OutcomeWindow(
+				this.config.getSlidingWindowSize()) : null;
+		circuitState.set(closed);
 	}
 
+	private static ClosedState newClosedState(CircuitConfig config) {
+		switch (config.getFailurePolicy()) {
+		case COUNT_WINDOW:
+			return new CircuitCountWindow(config.getSlidingWindowSize(), config.getFailureRateThreshold(),
+					config.getMinimumNumberOfCalls());
+		case TIME_WINDOW:
+			long duration = config.getSlidingWindowDuration();
+			int buckets = (int) Math.max(1, Math.min(MAX_TIME_WINDOW_BUCKETS, duration / TIME_WINDOW_BUCKET));
+			return new CircuitTimeWindow(duration, buckets, config.getFailureRateThreshold(),
+					config.getMinimumNumberOfCalls(), config.getClock());
+		default:
+			return new CircuitClosed();
+		}
+	}
+
+	/**
+	 * @return true if a call may be sent through the circuit, false while it
+	 *         is open or has as many calls in flight as its concurrency
+	 *         limit. A half open circuit hands out one of its trial permits.
+	 *         An accepted call counts as in flight right away, until
+	 *         {@link #callFinished()}.
+	 */
 	public boolean connectionAvailable() {
-		return circuitState.get().connectionAvailable(this);
+		if (reserveCall()) {
+			if (circuitState.get().connectionAvailable(this)) {
+				return true;
+			}
+			inFlight.decrementAndGet();
+		}
+		metrics.recordRejection();
+		return false;
+	}
+
+	/**
+	 * Counts a call in flight unless the concurrency limit is reached. The
+	 * check and the count are one compare-and-set, so calls selecting the
+	 * circuit at the same moment can not exceed the limit.
+	 */
+	private boolean reserveCall() {
+		int limit = getConcurrencyLimit();
+		while (true) {
+			int current = inFlight.get();
+			if (limit > 0 && current >= limit) {
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	private boolean isSaturated() {
+		int limit = getConcurrencyLimit();
+		return limit > 0 && inFlight.get() >= limit;
+	}
+
+	/**
+	 * @return number of calls in flight at which the circuit stops taking
+	 *         further calls, the lower of maxConcurrentCalls and the adaptive
+	 *         limit, 0 for no limit
+	 */
+	public int getConcurrencyLimit() {
+		int limit = config.getMaxConcurrentCalls();
+		if (concurrencyLimit != null) {
+			int adaptive = concurrencyLimit.get();
+			if (limit <= 0 || adaptive < limit) {
+				limit = adaptive;
+			}
+		}
+		return limit;
 	}
 
 	public void handleFailedConnection() {
-		circuitState.get().onError(this);
+		handleFailedConnection(getTrialPeriod());
+	}
+
+	/**
+	 * @param trialPeriod
+	 *            {@link #getTrialPeriod()} of the circuit when the call was
+	 *            selected. Only the failure of a call holding one of the
+	 *            trial permits opens a half open circuit again and counts as
+	 *            a failed probe, not the late failure of a call sent before
+	 *            the circuit opened.
+	 */
+	public void handleFailedConnection(long trialPeriod) {
+		metrics.recordFailure();
+		EjectionPolicy policy = ejectionPolicy;
+		if (policy != null) {
+			errorRate.record(true);
+		}
+		if (concurrencyLimit != null) {
+			concurrencyLimit.onDrop();
+		}
+		CircuitState state = circuitState.get();
+		if (state != halfOpen || halfOpen.isTrial(trialPeriod)) {
+			state.onError(this);
+		}
+		if (policy != null && circuitState.get() == closed && policy.isOutlier(this)) {
+			tripBreaker(closed);
+		}
 	}
 
 	public void handleSuccesfullConnection() {
-		circuitState.get().onSuccess(this);
+		handleSuccesfullConnection(getTrialPeriod());
+	}
+
+	/**
+	 * @param trialPeriod
+	 *            {@link #getTrialPeriod()} of the circuit when the call was
+	 *            selected. A half open circuit only counts the successes of
+	 *            calls holding one of its trial permits, not those of calls
+	 *            sent before it opened.
+	 */
+	public void handleSuccesfullConnection(long trialPeriod) {
+		metrics.recordSuccess();
+		if (ejectionPolicy != null) {
+			errorRate.record(false);
+		}
+		CircuitState state = circuitState.get();
+		if (state != halfOpen || halfOpen.isTrial(trialPeriod)) {
+			state.onSuccess(this);
+		}
+	}
+
+	/**
+	 * @return the half open period whose trial permit a call let through
+	 *         now holds, {@link #NO_TRIAL} unless the circuit is half open.
+	 *         Passed back with the outcome of the call.
+	 */
+	public long getTrialPeriod() {
+		return circuitState.get() == halfOpen ? halfOpen.getPeriod() : NO_TRIAL;
+	}
+
+	/**
+	 * Records how long a call to the target took, in milliseconds, and
+	 * updates the latency estimate and the adaptive concurrency limit. Trips the circuit when the share of calls
+	 * slower than slowCallDurationThreshold reaches slowCallRateThreshold,
+	 * independently of the calls' outcome. A slow trial call of a half open
+	 * circuit opens it again.
+	 */
+	public void handleCallDuration(long duration) {
+		handleCallDuration(duration, getTrialPeriod());
+	}
+
+	/**
+	 * @param trialPeriod
+	 *            {@link #getTrialPeriod()} of the circuit when the call was
+	 *            selected, only a slow trial call opens a half open circuit
+	 */
+	public void handleCallDuration(long duration, long trialPeriod) {
+		metrics.recordLatency(duration);
+		latency.update(duration);
+		if (concurrencyLimit != null) {
+			concurrencyLimit.onSample(duration, inFlight.get() + 1);
+		}
+		if (slowCalls == null) {
+			return;
+		}
+		boolean slow = duration > config.getSlowCallDurationThreshold();
+		CircuitState state = circuitState.get();
+		if (state == halfOpen) {
+			if (slow && halfOpen.isTrial(trialPeriod)) {
+				tripBreaker(halfOpen);
+			}
+		} else if (state == closed) {
+			slowCalls.record(slow);
+			if (slow && slowCalls.rateReached(config.getSlowCallRateThreshold(), config.getMinimumNumberOfCalls())) {
+				tripBreaker(closed);
+			}
+		}
+	}
+
+	/**
+	 * Time the circuit stays open after the given number of failed probes in
+	 * a row. The resetTimeout grows by backoffMultiplier with every failed
+	 * probe up to maxResetTimeout, then up to resetTimeoutJitter of it is
+	 * taken off at random so that clients do not probe in lockstep.
+	 */
+	private long openDuration(int failedProbes) {
+		long resetTimeout = config.getResetTimeout();
+		long maxResetTimeout = Math.max(config.getMaxResetTimeout(), resetTimeout);
+		double multiplier = config.getBackoffMultiplier();
+		double duration = resetTimeout;
+		if (failedProbes > 0 && multiplier > 1 && resetTimeout > 0) {
+			// probes beyond those needed to reach maxResetTimeout change nothing
+			int maxExponent = (int) Math.ceil(Math.log((double) maxResetTimeout / resetTimeout)
+					/ Math.log(multiplier));
+			duration *= Math.pow(multiplier, Math.min(failedProbes, maxExponent));
+		}
+		duration = Math.min(duration, maxResetTimeout);
+		double jitter = config.getResetTimeoutJitter();
+		if (jitter > 0) {
+			duration -= duration * jitter * random.nextDouble();
+		}
+		return (long) duration;
+	}
+
+	/**
+	 * Counts a call in flight whose target was fixed without
+	 * {@link #connectionAvailable()}, regardless of the concurrency limit.
+	 */
+	public void callStarted() {
+		inFlight.incrementAndGet();
+	}
+
+	/**
+	 * Ends a call counted by {@link #connectionAvailable()} or
+	 * {@link #callStarted()}, also when it is dropped without being sent.
+	 */
+	public void callFinished() {
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 * @return number of calls sent through the circuit that have not
+	 *         completed yet
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return peak EWMA of the circuit's response times in milliseconds, 0
+	 *         until the first call completes, decaying towards 0 while no
+	 *         further calls complete
+	 */
+	public double getLatencyEstimate() {
+		return latency.get();
+	}
+
+	/**
+	 * @return relative share of calls weighted selection strategies send to
+	 *         the circuit, 1 by default
+	 */
+	public int getWeight() {
+		return weight;
+	}
+
+	public void setWeight(int weight) {
+		if (weight < 1) {
+			throw new IllegalArgumentException("Weight must be positive: " + weight);
+		}
+		this.weight = weight;
+	}
+
+	/**
+	 * @return moving average of the share of failed calls in percent, only
+	 *         tracked while the circuit has an ejection policy
+	 */
+	public double getErrorRate() {
+		return errorRate.get();
+	}
+
+	long getErrorRateCalls() {
+		return errorRate.getCalls();
+	}
+
+	/**
+	 * Policy of the group of peer circuits this circuit belongs to, null
+	 * (the default) when the circuit decides on its own when to open.
+	 */
+	public void setEjectionPolicy(EjectionPolicy ejectionPolicy) {
+		this.ejectionPolicy = ejectionPolicy;
+	}
+
+	/**
+	 * Sets the weight and ejection policy of a circuit used by several
+	 * clients, e.g. through a {@link CircuitRegistry}. The first client
+	 * decides, the others have to ask for the same settings so that none of
+	 * them silently overrides the settings of the rest.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the circuit is already shared with other settings
+	 */
+	public synchronized void share(int weight, EjectionPolicy ejectionPolicy) {
+		if (!shared) {
+			setWeight(weight);
+			setEjectionPolicy(ejectionPolicy);
+			shared = true;
+		} else if (this.weight != weight
+				|| (ejectionPolicy == null ? this.ejectionPolicy != null : !ejectionPolicy.equals(this.ejectionPolicy))) {
+			throw new IllegalStateException(String.format(
+					"%s is shared with weight %d and %s, cannot share it with weight %d and %s", this,
+					this.weight, this.ejectionPolicy, weight, ejectionPolicy));
+		}
+	}
+
+	CircuitConfig getConfig() {
+		return config;
+	}
+
+	public int getMinimumNumberOfCalls() {
+		return config.getMinimumNumberOfCalls();
+	}
+
+	/**
+	 * @return counters and response time histogram of the circuit
+	 */
+	public CircuitMetrics getMetrics() {
+		return metrics;
 	}
 
 	public int getFailureThreshold() {
-		return failureThreshold;
+		return config.getFailureThreshold();
 	}
 
 	public long getResetTimeout() {
-		return resetTimeout;
+		return config.getResetTimeout();
+	}
+
+	public int getHalfOpenPermits() {
+		return config.getHalfOpenPermits();
+	}
+
+	public int getHalfOpenSuccessThreshold() {
+		return config.getHalfOpenSuccessThreshold();
+	}
+
+	/**
+	 * Opens the circuit if it is still in the given state. Only the thread
+	 * that wins the transition restarts the reset timer and logs it.
+	 * 
+	 * @return true if this call performed the transition
+	 */
+	public boolean tripBreaker(CircuitState from) {
+		EjectionPolicy policy = ejectionPolicy;
+		if (from != halfOpen && policy != null && !policy.mayEject(this)) {
+			return false;
+		}
+		if (!circuitState.compareAndSet(from, open)) {
+			return false;
+		}
+		int probes = 0;
+		if (from == halfOpen) {
+			probes = failedProbes.incrementAndGet();
+		} else {
+			failedProbes.set(0);
+		}
+		open.trip(openDuration(probes));
+		halfOpen.clear();
+		metrics.recordOpened();
+		LOG.warn("Tripping breaker, {}", this);
+		return true;
+	}
+
+	/**
+	 * Closes the circuit if it is still in the given state.
+	 * 
+	 * @return true if this call performed the transition
+	 */
+	public boolean resetBreaker(CircuitState from) {
+		if (!circuitState.compareAndSet(from, closed)) {
+			return false;
+		}
+		closed.reset();
+		if (slowCalls != null) {
+			slowCalls.reset();
+		}
+		errorRate.reset();
+		halfOpen.clear();
+		failedProbes.set(0);
+		metrics.recordClosed();
+		LOG.info("Breaker reset, {}", this);
+		return true;
+	}
+
+	/**
+	 * Moves the circuit to half open if it is still in the given state.
+	 * 
+	 * @return true if this call performed the transition
+	 */
+	public boolean attemptReset(CircuitState from) {
+		if (!circuitState.compareAndSet(from, halfOpen)) {
+			return false;
+		}
+		halfOpen.reset(this);
+		metrics.recordHalfOpened();
+		LOG.info("Breaker reset attempt, {}", this);
+		return true;
+	}
+
+	boolean isClosed() {
+		return circuitState.get() == closed;
+	}
+
+	/**
+	 * Asks the current state alone whether to let a call through. Unlike
+	 * connectionAvailable it counts no rejection, so a state handing the
+	 * decision on to its successor does not count one twice.
+	 */
+	boolean stateAllowsConnection() {
+		return circuitState.get().connectionAvailable(this);
 	}
 
-	public void tripBreaker() {
-		circuitState.set(new CircuitOpen());
-		LOG.warn("Tripping breaker, {}", this.toString());
+	/**
+	 * Side effect free forecast of {@link #connectionAvailable()}: whether a
+	 * call would be let through now. Unlike connectionAvailable it neither
+	 * moves an expired open circuit to half open, nor takes a trial permit,
+	 * nor counts the call in flight or a rejection.
+	 */
+	boolean mayBeAvailable() {
+		if (isSaturated()) {
+			return false;
+		}
+		CircuitState state = circuitState.get();
+		if (state == open) {
+			return open.hasExpired();
+		}
+		if (state == halfOpen) {
+			return halfOpen.hasPermits(this);
+		}
+		return true;
 	}
 
-	public void resetBreaker() {
-		circuitState.set(new CircuitClosed());
-		LOG.info("Breaker reset, {}", this.toString());
+	/**
+	 * @return true if the circuit is open and its target has not been probed
+	 *         yet
+	 */
+	public boolean isOpen() {
+		return circuitState.get() == open;
 	}
 
-	public void attemptReset() {
-		circuitState.set(new CircuitHalfOpen());
-		LOG.info("Breaker reset attempt, {}", this.toString());
+	/**
+	 * Closes an open circuit once a health check has found its target
+	 * healthy, without waiting for a call to probe it.
+	 * 
+	 * @return true if this call closed the circuit
+	 */
+	public boolean healthCheckPassed() {
+		long trippedAt = open.getTripTime();
+		if (circuitState.get() == open && resetBreaker(open)) {
+			open.clear(trippedAt);
+			return true;
+		}
+		return false;
 	}
 
 	public String getTargetAddress() {
@@ -62,8 +517,8 @@ public class Circuit {
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
 		builder.append("Circuit [targetAddress=").append(targetAddress).append(", state=")
-				.append(circuitState.get()).append(", failureThreshold=").append(failureThreshold)
-				.append(", resetTimeout=").append(resetTimeout).append("]");
+				.append(circuitState.get()).append(", failureThreshold=").append(config.getFailureThreshold())
+				.append(", resetTimeout=").append(config.getResetTimeout()).append("]");
 		return builder.toString();
 	}
 
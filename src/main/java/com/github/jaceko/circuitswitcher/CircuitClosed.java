@@ -2,7 +2,7 @@ package com.github.jaceko.circuitswitcher;
 
 import java.util.concurrent.atomic.AtomicInteger;
 
-public class CircuitClosed implements CircuitState {
+public class CircuitClosed extends ClosedState {
 	
 	private final AtomicInteger failureCount = new AtomicInteger(0);
 
@@ -11,7 +11,7 @@ public class CircuitClosed implements CircuitState {
 		 int currentCount = failureCount.incrementAndGet();
 		 int threshold = circuit.getFailureThreshold();
 		 if(currentCount >= threshold) {
-			 circuit.tripBreaker();
+			 circuit.tripBreaker(this);
 		 }
 	}
 
@@ -19,8 +19,9 @@ public class CircuitClosed implements CircuitState {
 		failureCount.set(0);
 	}
 
-	public boolean connectionAvailable(Circuit circuit) {
-		return true;
+	@Override
+	void reset() {
+		failureCount.set(0);
 	}
 
 	@Override
@@ -0,0 +1,377 @@
+package com.github.jaceko.circuitswitcher;
+
+/**
+ * Settings a {@link Circuit} is created with. The circuit copies the values,
+ * so changing a config later does not affect circuits already created from
+ * it.
+ */
+public class CircuitConfig {
+
+	private int failureThreshold;
+	private long resetTimeout;
+	private int halfOpenPermits = 1;
+	private int halfOpenSuccessThreshold = 1;
+	private FailurePolicy failurePolicy = FailurePolicy.CONSECUTIVE_FAILURES;
+	private int slidingWindowSize = 100;
+	private long slidingWindowDuration = 10000;
+	private int failureRateThreshold = 50;
+	private int minimumNumberOfCalls = 10;
+	private long slowCallDurationThreshold;
+	private int slowCallRateThreshold = 100;
+	private Clock clock = MonotonicClock.INSTANCE;
+	private double backoffMultiplier = 1;
+	private long maxResetTimeout = 60000;
+	private double resetTimeoutJitter;
+	private long latencyDecayTime = 10000;
+	private int maxConcurrentCalls;
+	private boolean adaptiveConcurrency;
+	private int initialConcurrencyLimit = 20;
+	private int maxConcurrencyLimit = 200;
+	private double latencyTolerance = 2;
+
+	public CircuitConfig() {
+	}
+
+	public CircuitConfig(int failureThreshold, long resetTimeout) {
+		this.failureThreshold = failureThreshold;
+		this.resetTimeout = resetTimeout;
+	}
+
+	public CircuitConfig(CircuitConfig config) {
+		this.failureThreshold = config.failureThreshold;
+		this.resetTimeout = config.resetTimeout;
+		this.halfOpenPermits = config.halfOpenPermits;
+		this.halfOpenSuccessThreshold = config.halfOpenSuccessThreshold;
+		this.failurePolicy = config.failurePolicy;
+		this.slidingWindowSize = config.slidingWindowSize;
+		this.slidingWindowDuration = config.slidingWindowDuration;
+		this.failureRateThreshold = config.failureRateThreshold;
+		this.minimumNumberOfCalls = config.minimumNumberOfCalls;
+		this.slowCallDurationThreshold = config.slowCallDurationThreshold;
+		this.slowCallRateThreshold = config.slowCallRateThreshold;
+		this.clock = config.clock;
+		this.backoffMultiplier = config.backoffMultiplier;
+		this.maxResetTimeout = config.maxResetTimeout;
+		this.resetTimeoutJitter = config.resetTimeoutJitter;
+		this.latencyDecayTime = config.latencyDecayTime;
+		this.maxConcurrentCalls = config.maxConcurrentCalls;
+		this.adaptiveConcurrency = config.adaptiveConcurrency;
+		this.initialConcurrencyLimit = config.initialConcurrencyLimit;
+		this.maxConcurrencyLimit = config.maxConcurrencyLimit;
+		this.latencyTolerance = config.latencyTolerance;
+	}
+
+	public int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	public void setFailureThreshold(int failureThreshold) {
+		this.failureThreshold = failureThreshold;
+	}
+
+	public long getResetTimeout() {
+		return resetTimeout;
+	}
+
+	public void setResetTimeout(long resetTimeout) {
+		this.resetTimeout = resetTimeout;
+	}
+
+	public int getHalfOpenPermits() {
+		return halfOpenPermits;
+	}
+
+	/**
+	 * Number of trial calls let through to a half open circuit at the same
+	 * time. Other callers skip the circuit until the trials report back.
+	 */
+	public void setHalfOpenPermits(int halfOpenPermits) {
+		this.halfOpenPermits = halfOpenPermits;
+	}
+
+	public int getHalfOpenSuccessThreshold() {
+		return halfOpenSuccessThreshold;
+	}
+
+	/**
+	 * Number of successful trial calls needed to close a half open circuit.
+	 */
+	public void setHalfOpenSuccessThreshold(int halfOpenSuccessThreshold) {
+		this.halfOpenSuccessThreshold = halfOpenSuccessThreshold;
+	}
+
+	public FailurePolicy getFailurePolicy() {
+		return failurePolicy;
+	}
+
+	/**
+	 * Decides when a closed circuit trips,
+	 * {@link FailurePolicy#CONSECUTIVE_FAILURES} by default.
+	 */
+	public void setFailurePolicy(FailurePolicy failurePolicy) {
+		this.failurePolicy = failurePolicy;
+	}
+
+	public int getSlidingWindowSize() {
+		return slidingWindowSize;
+	}
+
+	/**
+	 * Number of most recent calls the failure rate is computed over.
+	 */
+	public void setSlidingWindowSize(int slidingWindowSize) {
+		this.slidingWindowSize = slidingWindowSize;
+	}
+
+	public long getSlidingWindowDuration() {
+		return slidingWindowDuration;
+	}
+
+	/**
+	 * Time in milliseconds the failure rate is computed over. The window is
+	 * split into one second buckets, but never into more than 60.
+	 */
+	public void setSlidingWindowDuration(long slidingWindowDuration) {
+		this.slidingWindowDuration = slidingWindowDuration;
+	}
+
+	public int getFailureRateThreshold() {
+		return failureRateThreshold;
+	}
+
+	/**
+	 * Failure rate in percent at which the circuit trips.
+	 */
+	public void setFailureRateThreshold(int failureRateThreshold) {
+		this.failureRateThreshold = failureRateThreshold;
+	}
+
+	public int getMinimumNumberOfCalls() {
+		return minimumNumberOfCalls;
+	}
+
+	/**
+	 * Number of calls that have to be recorded before the failure rate is
+	 * taken into account.
+	 */
+	public void setMinimumNumberOfCalls(int minimumNumberOfCalls) {
+		this.minimumNumberOfCalls = minimumNumberOfCalls;
+	}
+
+	public long getSlowCallDurationThreshold() {
+		return slowCallDurationThreshold;
+	}
+
+	/**
+	 * Duration in milliseconds above which a call counts as slow, 0 disables
+	 * slow call detection.
+	 */
+	public void setSlowCallDurationThreshold(long slowCallDurationThreshold) {
+		this.slowCallDurationThreshold = slowCallDurationThreshold;
+	}
+
+	public int getSlowCallRateThreshold() {
+		return slowCallRateThreshold;
+	}
+
+	/**
+	 * Share of slow calls in percent, among the last slidingWindowSize calls,
+	 * at which the circuit trips.
+	 */
+	public void setSlowCallRateThreshold(int slowCallRateThreshold) {
+		this.slowCallRateThreshold = slowCallRateThreshold;
+	}
+
+	public Clock getClock() {
+		return clock;
+	}
+
+	/**
+	 * Time source of the circuit's timeouts and windows,
+	 * {@link MonotonicClock} by default.
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	public double getBackoffMultiplier() {
+		return backoffMultiplier;
+	}
+
+	/**
+	 * Factor the time a circuit stays open grows by with every failed probe
+	 * in a row, 1 keeps it at resetTimeout.
+	 */
+	public void setBackoffMultiplier(double backoffMultiplier) {
+		this.backoffMultiplier = backoffMultiplier;
+	}
+
+	public long getMaxResetTimeout() {
+		return maxResetTimeout;
+	}
+
+	/**
+	 * Upper bound in milliseconds of the grown open time, one minute by
+	 * default. It never shortens the resetTimeout itself.
+	 */
+	public void setMaxResetTimeout(long maxResetTimeout) {
+		if (maxResetTimeout < 1) {
+			throw new IllegalArgumentException("maxResetTimeout must be positive: " + maxResetTimeout);
+		}
+		this.maxResetTimeout = maxResetTimeout;
+	}
+
+	public double getResetTimeoutJitter() {
+		return resetTimeoutJitter;
+	}
+
+	/**
+	 * Largest fraction, between 0 and 1, of the open time that is taken off
+	 * at random every time the circuit opens.
+	 */
+	public void setResetTimeoutJitter(double resetTimeoutJitter) {
+		this.resetTimeoutJitter = resetTimeoutJitter;
+	}
+
+	public long getLatencyDecayTime() {
+		return latencyDecayTime;
+	}
+
+	/**
+	 * Time in milliseconds over which a lower response time takes over the
+	 * circuit's latency estimate. Higher response times take over at once.
+	 */
+	public void setLatencyDecayTime(long latencyDecayTime) {
+		this.latencyDecayTime = latencyDecayTime;
+	}
+
+	public int getMaxConcurrentCalls() {
+		return maxConcurrentCalls;
+	}
+
+	/**
+	 * Number of calls in flight at which the circuit stops taking further
+	 * calls until some complete, 0 for no limit.
+	 */
+	public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+		this.maxConcurrentCalls = maxConcurrentCalls;
+	}
+
+	public boolean isAdaptiveConcurrency() {
+		return adaptiveConcurrency;
+	}
+
+	/**
+	 * Lets the circuit discover how many calls its target can take at once
+	 * from the response times and failures of the calls.
+	 */
+	public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+		this.adaptiveConcurrency = adaptiveConcurrency;
+	}
+
+	public int getInitialConcurrencyLimit() {
+		return initialConcurrencyLimit;
+	}
+
+	/**
+	 * Adaptive concurrency limit the circuit starts with.
+	 */
+	public void setInitialConcurrencyLimit(int initialConcurrencyLimit) {
+		this.initialConcurrencyLimit = initialConcurrencyLimit;
+	}
+
+	public int getMaxConcurrencyLimit() {
+		return maxConcurrencyLimit;
+	}
+
+	/**
+	 * Upper bound of the adaptive concurrency limit.
+	 */
+	public void setMaxConcurrencyLimit(int maxConcurrencyLimit) {
+		this.maxConcurrencyLimit = maxConcurrencyLimit;
+	}
+
+	public double getLatencyTolerance() {
+		return latencyTolerance;
+	}
+
+	/**
+	 * Factor by which a response time has to exceed the long term average to
+	 * cut the adaptive concurrency limit.
+	 */
+	public void setLatencyTolerance(double latencyTolerance) {
+		this.latencyTolerance = latencyTolerance;
+	}
+
+	/**
+	 * Configs are equal when circuits created from them behave the same.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof CircuitConfig)) {
+			return false;
+		}
+		CircuitConfig other = (CircuitConfig) obj;
+		return failureThreshold == other.failureThreshold && resetTimeout == other.resetTimeout
+				&& halfOpenPermits == other.halfOpenPermits
+				&& halfOpenSuccessThreshold == other.halfOpenSuccessThreshold
+				&& failurePolicy == other.failurePolicy && slidingWindowSize == other.slidingWindowSize
+				&& slidingWindowDuration == other.slidingWindowDuration
+				&& failureRateThreshold == other.failureRateThreshold
+				&& minimumNumberOfCalls == other.minimumNumberOfCalls
+				&& slowCallDurationThreshold == other.slowCallDurationThreshold
+				&& slowCallRateThreshold == other.slowCallRateThreshold
+				&& (clock == null ? other.clock == null : clock.equals(other.clock))
+				&& Double.compare(backoffMultiplier, other.backoffMultiplier) == 0
+				&& maxResetTimeout == other.maxResetTimeout
+				&& Double.compare(resetTimeoutJitter, other.resetTimeoutJitter) == 0
+				&& latencyDecayTime == other.latencyDecayTime && maxConcurrentCalls == other.maxConcurrentCalls
+				&& adaptiveConcurrency == other.adaptiveConcurrency
+				&& initialConcurrencyLimit == other.initialConcurrencyLimit
+				&& maxConcurrencyLimit == other.maxConcurrencyLimit
+				&& Double.compare(latencyTolerance, other.latencyTolerance) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + failureThreshold;
+		result = prime * result + (int) (resetTimeout ^ (resetTimeout >>> 32));
+		result = prime * result + halfOpenPermits;
+		result = prime * result + halfOpenSuccessThreshold;
+		result = prime * result + ((failurePolicy == null) ? 0 : failurePolicy.hashCode());
+		result = prime * result + slidingWindowSize;
+		result = prime * result + (int) (slidingWindowDuration ^ (slidingWindowDuration >>> 32));
+		result = prime * result + failureRateThreshold;
+		result = prime * result + minimumNumberOfCalls;
+		result = prime * result + (int) (slowCallDurationThreshold ^ (slowCallDurationThreshold >>> 32));
+		result = prime * result + slowCallRateThreshold;
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("CircuitConfig [failureThreshold=").append(failureThreshold).append(", resetTimeout=")
+				.append(resetTimeout).append(", halfOpenPermits=").append(halfOpenPermits)
+				.append(", halfOpenSuccessThreshold=").append(halfOpenSuccessThreshold)
+				.append(", failurePolicy=").append(failurePolicy).append(", slidingWindowSize=")
+				.append(slidingWindowSize).append(", slidingWindowDuration=").append(slidingWindowDuration)
+				.append(", failureRateThreshold=").append(failureRateThreshold).append(", minimumNumberOfCalls=")
+				.append(minimumNumberOfCalls).append(", slowCallDurationThreshold=")
+				.append(slowCallDurationThreshold).append(", slowCallRateThreshold=").append(slowCallRateThreshold)
+				.append(", clock=").append(clock).append(", backoffMultiplier=").append(backoffMultiplier)
+				.append(", maxResetTimeout=").append(maxResetTimeout).append(", resetTimeoutJitter=")
+				.append(resetTimeoutJitter).append(", latencyDecayTime=").append(latencyDecayTime)
+				.append(", maxConcurrentCalls=").append(maxConcurrentCalls).append(", adaptiveConcurrency=")
+				.append(adaptiveConcurrency).append(", initialConcurrencyLimit=").append(initialConcurrencyLimit)
+				.append(", maxConcurrencyLimit=").append(maxConcurrencyLimit).append(", latencyTolerance=")
+				.append(latencyTolerance).append("]");
+		return builder.toString();
+	}
+
+}
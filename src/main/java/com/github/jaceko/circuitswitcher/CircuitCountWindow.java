@@ -0,0 +1,39 @@
+package com.github.jaceko.circuitswitcher;
+
+/**
+ * Closed state that trips on the failure rate of the last N calls.
+ */
+public class CircuitCountWindow extends ClosedState {
+
+	private final OutcomeWindow window;
+	private final int failureRateThreshold;
+	private final int minimumNumberOfCalls;
+
+	public CircuitCountWindow(int windowSize, int failureRateThreshold, int minimumNumberOfCalls) {
+		this.window = new OutcomeWindow(windowSize);
+		this.failureRateThreshold = failureRateThreshold;
+		this.minimumNumberOfCalls = minimumNumberOfCalls;
+	}
+
+	public void onError(Circuit circuit) {
+		window.record(true);
+		if (window.rateReached(failureRateThreshold, minimumNumberOfCalls)) {
+			circuit.tripBreaker(this);
+		}
+	}
+
+	public void onSuccess(Circuit circuit) {
+		window.record(false);
+	}
+
+	@Override
+	void reset() {
+		window.reset();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("CircuitCountWindow [calls=%s, failures=%s]", window.getCalls(), window.getMarked());
+	}
+
+}
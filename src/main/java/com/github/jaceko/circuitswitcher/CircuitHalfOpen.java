@@ -1,18 +1,116 @@
 package com.github.jaceko.circuitswitcher;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 public class CircuitHalfOpen implements CircuitState {
 
+	private static final long NOT_GRANTED = Long.MAX_VALUE;
+
+	private final AtomicInteger permits = new AtomicInteger(0);
+	private final AtomicInteger successCount = new AtomicInteger(0);
+	private final AtomicLong lastGrantTime = new AtomicLong(NOT_GRANTED);
+
+	/**
+	 * Counts the half open periods, so that the outcome of a call can be
+	 * matched with the period whose trial permit it holds.
+	 */
+	private final AtomicLong period = new AtomicLong(Circuit.NO_TRIAL);
+	private final Clock clock;
+
+	public CircuitHalfOpen() {
+		this(MonotonicClock.INSTANCE);
+	}
+
+	public CircuitHalfOpen(Clock clock) {
+		this.clock = clock;
+	}
+
+	void reset(Circuit circuit) {
+		// before the permits, a call granted one sees the new period
+		period.incrementAndGet();
+		successCount.set(0);
+		lastGrantTime.set(clock.millis());
+		permits.set(circuit.getHalfOpenPermits());
+	}
+
+	void clear() {
+		permits.set(0);
+		lastGrantTime.set(NOT_GRANTED);
+	}
+
+	/**
+	 * Grants one of the trial permits. When all of them are taken and none
+	 * has been granted for resetTimeout, the trial calls are considered lost
+	 * and one more permit is granted so the circuit can not get stuck.
+	 */
 	public boolean connectionAvailable(Circuit circuit) {
-		return true;
+		while (true) {
+			int available = permits.get();
+			if (available <= 0) {
+				return reclaimLostPermit(circuit);
+			}
+			if (permits.compareAndSet(available, available - 1)) {
+				lastGrantTime.set(clock.millis());
+				return true;
+			}
+		}
 	}
 
+	private boolean reclaimLostPermit(Circuit circuit) {
+		long grantedAt = lastGrantTime.get();
+		long now = clock.millis();
+		return isLost(grantedAt, now, circuit) && lastGrantTime.compareAndSet(grantedAt, now);
+	}
+
+	/**
+	 * @return true if a permit is left or a lost one could be reclaimed,
+	 *         without granting it
+	 */
+	boolean hasPermits(Circuit circuit) {
+		return permits.get() > 0 || isLost(lastGrantTime.get(), clock.millis(), circuit);
+	}
+
+	private static boolean isLost(long grantedAt, long now, Circuit circuit) {
+		return grantedAt != NOT_GRANTED && now - grantedAt > circuit.getResetTimeout();
+	}
+
+	long getPeriod() {
+		return period.get();
+	}
+
+	/**
+	 * @return true if a call selected in the given period holds one of the
+	 *         trial permits of the current period
+	 */
+	boolean isTrial(long trialPeriod) {
+		return trialPeriod != Circuit.NO_TRIAL && trialPeriod == period.get();
+	}
+
+	/**
+	 * Counts the success of a trial call and hands its permit out again,
+	 * never more than halfOpenPermits of them, as the permits reclaimed
+	 * from calls considered lost may still return.
+	 */
 	public void onSuccess(Circuit circuit) {
-		circuit.resetBreaker();
-		
+		if (successCount.incrementAndGet() >= circuit.getHalfOpenSuccessThreshold()) {
+			circuit.resetBreaker(this);
+		} else {
+			returnPermit(circuit.getHalfOpenPermits());
+		}
+	}
+
+	private void returnPermit(int maxPermits) {
+		while (true) {
+			int available = permits.get();
+			if (available >= maxPermits || permits.compareAndSet(available, available + 1)) {
+				return;
+			}
+		}
 	}
 
 	public void onError(Circuit circuit) {
-		circuit.tripBreaker();
+		circuit.tripBreaker(this);
 	}
 
 	@Override
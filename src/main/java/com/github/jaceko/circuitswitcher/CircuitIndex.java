@@ -0,0 +1,108 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable hash index of circuits by their normalized target address.
+ * 
+ * An address resolved for an exchange is either a circuit's target address or
+ * that address followed by a resource path (JAX-RS). {@link #find(String)}
+ * therefore tries the whole address first and then drops trailing path
+ * segments one by one, so the cost depends on the path depth and not on the
+ * number of circuits, and <code>http://a/svc2</code> never matches the circuit
+ * of <code>http://a/svc</code>.
+ */
+public class CircuitIndex {
+
+	private final Map<String, Circuit> circuits;
+
+	public CircuitIndex(Collection<Circuit> circuits) {
+		Map<String, Circuit> index = new HashMap<String, Circuit>();
+		for (Circuit circuit : circuits) {
+			if (circuit.getTargetAddress() != null) {
+				index.put(normalize(circuit.getTargetAddress()), circuit);
+			}
+		}
+		this.circuits = index;
+	}
+
+	/**
+	 * Finds the circuit whose target address is the given address or its
+	 * closest parent on a path segment boundary.
+	 * 
+	 * @return matching circuit or null
+	 */
+	public Circuit find(String address) {
+		if (address == null || circuits.isEmpty()) {
+			return null;
+		}
+		String key = normalize(address);
+		int pathStart = pathStart(key);
+		while (true) {
+			Circuit circuit = circuits.get(key);
+			if (circuit != null) {
+				return circuit;
+			}
+			int lastSlash = key.lastIndexOf('/');
+			if (lastSlash < pathStart) {
+				return null;
+			}
+			key = key.substring(0, lastSlash);
+		}
+	}
+
+	public int size() {
+		return circuits.size();
+	}
+
+	/**
+	 * Normalizes an address into an index key: lower case scheme and host,
+	 * no default port, no query or fragment and no trailing slash.
+	 */
+	public static String normalize(String address) {
+		String trimmed = address.trim();
+		int end = trimmed.length();
+		int query = trimmed.indexOf('?');
+		if (query >= 0) {
+			end = query;
+		}
+		int fragment = trimmed.indexOf('#');
+		if (fragment >= 0 && fragment < end) {
+			end = fragment;
+		}
+		while (end > 0 && trimmed.charAt(end - 1) == '/') {
+			end--;
+		}
+		trimmed = trimmed.substring(0, end);
+
+		int schemeEnd = trimmed.indexOf("://");
+		if (schemeEnd < 0) {
+			return trimmed;
+		}
+		int authorityStart = schemeEnd + 3;
+		int pathStart = trimmed.indexOf('/', authorityStart);
+		if (pathStart < 0) {
+			pathStart = trimmed.length();
+		}
+		String scheme = trimmed.substring(0, schemeEnd).toLowerCase(Locale.ENGLISH);
+		String authority = trimmed.substring(authorityStart, pathStart).toLowerCase(Locale.ENGLISH);
+		if (("http".equals(scheme) && authority.endsWith(":80"))
+				|| ("https".equals(scheme) && authority.endsWith(":443"))) {
+			authority = authority.substring(0, authority.lastIndexOf(':'));
+		}
+		return scheme + "://" + authority + trimmed.substring(pathStart);
+	}
+
+	private static int pathStart(String key) {
+		int schemeEnd = key.indexOf("://");
+		if (schemeEnd < 0) {
+			return 0;
+		}
+		int pathStart = key.indexOf('/', schemeEnd + 3);
+		return pathStart < 0 ? key.length() : pathStart;
+	}
+
+}
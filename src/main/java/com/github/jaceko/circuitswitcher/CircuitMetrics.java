@@ -0,0 +1,212 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and response time histogram of one circuit. Counters are kept in
+ * stripes on separate cache lines like those of {@link CircuitTimeWindow},
+ * a thread always updates the stripe picked by its id. Recording takes no
+ * lock and allocates nothing; {@link #snapshot()} reads the values without
+ * stopping writers.
+ */
+public class CircuitMetrics {
+
+	private static final int MAX_STRIPES = 8;
+	/** longs per stripe, keeps stripes on separate 64 byte cache lines */
+	private static final int STRIPE_SIZE = 8;
+	private static final int SUCCESSES = 0;
+	private static final int FAILURES = 1;
+	private static final int REJECTIONS = 2;
+	private static final int FAILOVERS = 3;
+	private static final int OPENED = 4;
+	private static final int HALF_OPENED = 5;
+	private static final int CLOSED = 6;
+
+	private final int stripeMask;
+	private final AtomicLongArray counters;
+	private final LatencyHistogram latencies = new LatencyHistogram();
+
+	public CircuitMetrics() {
+		int processors = Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES);
+		int stripes = Integer.highestOneBit(Math.max(processors, 1) * 2 - 1);
+		this.stripeMask = stripes - 1;
+		this.counters = new AtomicLongArray(stripes * STRIPE_SIZE);
+	}
+
+	void recordSuccess() {
+		increment(SUCCESSES);
+	}
+
+	void recordFailure() {
+		increment(FAILURES);
+	}
+
+	void recordRejection() {
+		increment(REJECTIONS);
+	}
+
+	/**
+	 * Counts a call that failed over from the circuit to another one.
+	 */
+	public void recordFailover() {
+		increment(FAILOVERS);
+	}
+
+	void recordOpened() {
+		increment(OPENED);
+	}
+
+	void recordHalfOpened() {
+		increment(HALF_OPENED);
+	}
+
+	void recordClosed() {
+		increment(CLOSED);
+	}
+
+	void recordLatency(long duration) {
+		latencies.record(duration);
+	}
+
+	private void increment(int counter) {
+		int stripe = (int) Thread.currentThread().getId() & stripeMask;
+		counters.incrementAndGet(stripe * STRIPE_SIZE + counter);
+	}
+
+	private long sum(int counter) {
+		long sum = 0;
+		for (int stripe = 0; stripe <= stripeMask; stripe++) {
+			sum += counters.get(stripe * STRIPE_SIZE + counter);
+		}
+		return sum;
+	}
+
+	public Snapshot snapshot() {
+		long[] histogram = new long[LatencyHistogram.BUCKETS];
+		latencies.copyCounts(histogram);
+		return new Snapshot(sum(SUCCESSES), sum(FAILURES), sum(REJECTIONS), sum(FAILOVERS), sum(OPENED),
+				sum(HALF_OPENED), sum(CLOSED), histogram, latencies.getSum(), latencies.getMax());
+	}
+
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+
+	/**
+	 * Values of the metrics at the time of {@link CircuitMetrics#snapshot()}.
+	 * The counters are read one after another, so a snapshot taken while
+	 * calls complete is not exactly consistent.
+	 */
+	public static class Snapshot {
+
+		private final long successes;
+		private final long failures;
+		private final long rejections;
+		private final long failovers;
+		private final long opened;
+		private final long halfOpened;
+		private final long closed;
+		private final long[] histogram;
+		private final long latencyCount;
+		private final long latencySum;
+		private final long maxLatency;
+
+		Snapshot(long successes, long failures, long rejections, long failovers, long opened, long halfOpened,
+				long closed, long[] histogram, long latencySum, long maxLatency) {
+			this.successes = successes;
+			this.failures = failures;
+			this.rejections = rejections;
+			this.failovers = failovers;
+			this.opened = opened;
+			this.halfOpened = halfOpened;
+			this.closed = closed;
+			this.histogram = histogram;
+			long count = 0;
+			for (long bucket : histogram) {
+				count += bucket;
+			}
+			this.latencyCount = count;
+			this.latencySum = latencySum;
+			this.maxLatency = maxLatency;
+		}
+
+		/**
+		 * @return calls that completed through the circuit, successfully or
+		 *         not
+		 */
+		public long getCalls() {
+			return successes + failures;
+		}
+
+		public long getSuccesses() {
+			return successes;
+		}
+
+		public long getFailures() {
+			return failures;
+		}
+
+		/**
+		 * @return times the circuit refused a call because it was open, out
+		 *         of trial permits or saturated
+		 */
+		public long getRejections() {
+			return rejections;
+		}
+
+		public long getFailovers() {
+			return failovers;
+		}
+
+		public long getOpened() {
+			return opened;
+		}
+
+		public long getHalfOpened() {
+			return halfOpened;
+		}
+
+		public long getClosed() {
+			return closed;
+		}
+
+		public long getMaxLatency() {
+			return maxLatency;
+		}
+
+		public double getMeanLatency() {
+			return latencyCount == 0 ? 0 : (double) latencySum / latencyCount;
+		}
+
+		/**
+		 * @param percentile
+		 *            between 0 and 100, e.g. 99.9
+		 * @return response time in milliseconds the given percentage of
+		 *         calls did not exceed, within the histogram's precision
+		 */
+		public long getLatencyPercentile(double percentile) {
+			if (latencyCount == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * latencyCount));
+			long seen = 0;
+			for (int i = 0; i < histogram.length; i++) {
+				seen += histogram[i];
+				if (seen >= rank) {
+					return Math.min(LatencyHistogram.highestValue(i), maxLatency);
+				}
+			}
+			return maxLatency;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("CircuitMetrics [calls=%s, failures=%s, rejections=%s, failovers=%s, "
+					+ "opened=%s, halfOpened=%s, closed=%s, meanLatency=%.1f, p99Latency=%s, maxLatency=%s]",
+					getCalls(), failures, rejections, failovers, opened, halfOpened, closed, getMeanLatency(),
+					getLatencyPercentile(99), maxLatency);
+		}
+	}
+
+}
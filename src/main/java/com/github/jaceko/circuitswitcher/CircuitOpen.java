@@ -4,8 +4,42 @@ import java.util.concurrent.atomic.AtomicLong;
 
 public class CircuitOpen implements CircuitState {
 
-	private final AtomicLong tripTime = new AtomicLong(System.currentTimeMillis());
+	/**
+	 * Trip time of a circuit that has just been opened but whose trip time
+	 * has not been recorded yet. Such a circuit is treated as freshly opened.
+	 */
+	private static final long NOT_TRIPPED = Long.MIN_VALUE;
 
+	private final AtomicLong tripTime = new AtomicLong(NOT_TRIPPED);
+	private final AtomicLong openDuration = new AtomicLong(0);
+	private final Clock clock;
+
+	public CircuitOpen() {
+		this(MonotonicClock.INSTANCE);
+	}
+
+	public CircuitOpen(Clock clock) {
+		this.clock = clock;
+	}
+
+	void trip(long duration) {
+		openDuration.set(duration);
+		tripTime.set(clock.millis());
+	}
+
+	/**
+	 * Forgets the trip of the open period that started at trippedAt, so that
+	 * the next period counts as freshly opened until its own trip is
+	 * recorded. A compare-and-set keeps the trip of a later period, recorded
+	 * by a thread that opened the circuit again in the meantime.
+	 */
+	void clear(long trippedAt) {
+		tripTime.compareAndSet(trippedAt, NOT_TRIPPED);
+	}
+
+	long getTripTime() {
+		return tripTime.get();
+	}
 
 	public void onSuccess(Circuit circuit) {
 		
@@ -15,28 +49,44 @@ public class CircuitOpen implements CircuitState {
 
 	}
 
+	/**
+	 * @return true once the circuit has been open for its open duration
+	 */
+	boolean hasExpired() {
+		return hasExpired(tripTime.get());
+	}
+
+	private boolean hasExpired(long trippedAt) {
+		return trippedAt != NOT_TRIPPED && elapsed(clock.millis(), trippedAt) > openDuration.get();
+	}
+
 	public boolean connectionAvailable(Circuit circuit) {
-		if (elapsed() > circuit.getResetTimeout()) {
-			circuit.attemptReset();
-			return true;
+		long trippedAt = tripTime.get();
+		if (hasExpired(trippedAt)) {
+			if (circuit.attemptReset(this)) {
+				clear(trippedAt);
+			}
+			// winner or not, the trial permits of the new state decide
+			return circuit.stateAllowsConnection();
 		} else {
 			return false;
 		}
 	}
 
 	private long elapsed() {
-		long now = System.currentTimeMillis();
-		long elapsed = elapsed(now);
+		long now = clock.millis();
+		long elapsed = elapsed(now, tripTime.get());
 		return elapsed;
 	}
 
-	private long elapsed(long now) {
-		return now - tripTime.get();
+	private long elapsed(long now, long trippedAt) {
+		return now - trippedAt;
 	}
 
 	@Override
 	public String toString() {
-		return String.format("CircuitOpen [tripTime=%s, elapsedTime=%s]", tripTime, elapsed());
+		return String.format("CircuitOpen [tripTime=%s, elapsedTime=%s, openDuration=%s]", tripTime, elapsed(),
+				openDuration);
 	}
 
 
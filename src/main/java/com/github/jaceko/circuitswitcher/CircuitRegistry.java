@@ -0,0 +1,76 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps one {@link Circuit} per (normalized) target address. All clients looking up
+ * circuits in the same registry share the state of a node, so a single trip
+ * protects every one of them.
+ * 
+ * The scope of sharing is the scope of the registry instance: use
+ * {@link #shared()} for one registry per JVM (class loader) or create and
+ * inject an own instance to share circuits among a chosen group of clients.
+ * The first lookup of an address decides the settings of its circuit, later
+ * lookups have to ask for the same settings.
+ */
+public class CircuitRegistry {
+
+	private static final CircuitRegistry SHARED = new CircuitRegistry();
+
+	private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+
+	public static CircuitRegistry shared() {
+		return SHARED;
+	}
+
+	public Circuit getCircuit(String targetAddress, int failureThreshold, long resetTimeout) {
+		return getCircuit(targetAddress, new CircuitConfig(failureThreshold, resetTimeout));
+	}
+
+	public Circuit getCircuit(String targetAddress, CircuitConfig config) {
+		return lookup(CircuitIndex.normalize(targetAddress), targetAddress, config);
+	}
+
+	/**
+	 * Looks up the circuit of one operation of a target, kept apart from the
+	 * circuit of the target itself and of its other operations.
+	 */
+	public Circuit getCircuit(String targetAddress, String operation, CircuitConfig config) {
+		return lookup(CircuitIndex.normalize(targetAddress) + " " + operation, targetAddress, config);
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             if the circuit was created with other settings
+	 */
+	private Circuit lookup(String key, String targetAddress, CircuitConfig config) {
+		Circuit circuit = circuits.get(key);
+		if (circuit == null) {
+			Circuit newCircuit = new Circuit(targetAddress, config);
+			circuit = circuits.putIfAbsent(key, newCircuit);
+			if (circuit == null) {
+				circuit = newCircuit;
+			}
+		}
+		if (!circuit.getConfig().equals(config)) {
+			throw new IllegalStateException(String.format("%s is shared with %s, cannot share it with %s", circuit,
+					circuit.getConfig(), config));
+		}
+		return circuit;
+	}
+
+	public int size() {
+		return circuits.size();
+	}
+
+	public void clear() {
+		circuits.clear();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("CircuitRegistry [circuits=%s]", circuits.values());
+	}
+
+}
@@ -0,0 +1,20 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.List;
+
+/**
+ * Picks the circuit a call is sent through. Implementations are shared by
+ * concurrent callers and must be thread safe.
+ */
+public interface CircuitSelectionStrategy {
+
+	/**
+	 * @param circuits
+	 *            configured circuits in the order of preference, never empty
+	 * @return a circuit whose connection is available, null if there is none.
+	 *         The call counts as in flight on the returned circuit until the
+	 *         caller ends it with {@link Circuit#callFinished()}.
+	 */
+	Circuit select(List<Circuit> circuits);
+
+}
@@ -0,0 +1,149 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Closed state that trips on the failure rate of the calls made during the
+ * last windowDuration milliseconds. The window is a ring of buckets, each
+ * covering an equal slice of time. A bucket left over from an earlier lap
+ * of the ring is replaced by a fresh one by the first call that lands in it.
+ * <p>
+ * Every bucket keeps its counters in several stripes placed on separate
+ * cache lines, a thread always updates the stripe picked by its id, so
+ * concurrent callers rarely contend on the same counter. Recording an
+ * outcome takes no lock and never waits, the stripes are only summed when
+ * a failure is recorded. The only allocation is the bucket of a new time
+ * slice. A late call finding its bucket already taken over by a later
+ * slice is dropped, it has left the window anyway.
+ */
+public class CircuitTimeWindow extends ClosedState {
+
+	private static final int MAX_STRIPES = 8;
+	/** longs per stripe, keeps stripes on separate 64 byte cache lines */
+	private static final int STRIPE_SIZE = 8;
+	private static final int CALLS = 0;
+	private static final int FAILURES = 1;
+
+	private final long bucketDuration;
+	private final int bucketCount;
+	private final int stripeMask;
+	private final int failureRateThreshold;
+	private final int minimumNumberOfCalls;
+
+	/** bucket of the time slice each position of the ring currently holds */
+	private final AtomicReferenceArray<Bucket> buckets;
+	private final Clock clock;
+
+	public CircuitTimeWindow(long windowDuration, int bucketCount, int failureRateThreshold,
+			int minimumNumberOfCalls) {
+		this(windowDuration, bucketCount, failureRateThreshold, minimumNumberOfCalls, MonotonicClock.INSTANCE);
+	}
+
+	public CircuitTimeWindow(long windowDuration, int bucketCount, int failureRateThreshold,
+			int minimumNumberOfCalls, Clock clock) {
+		if (bucketCount <= 0 || windowDuration < bucketCount) {
+			throw new IllegalArgumentException("Can not split a window of " + windowDuration + " ms into "
+					+ bucketCount + " buckets");
+		}
+		this.bucketDuration = windowDuration / bucketCount;
+		this.bucketCount = bucketCount;
+		this.failureRateThreshold = failureRateThreshold;
+		this.minimumNumberOfCalls = minimumNumberOfCalls;
+		this.clock = clock;
+		this.stripeMask = stripeCount() - 1;
+		this.buckets = new AtomicReferenceArray<Bucket>(bucketCount);
+	}
+
+	private static int stripeCount() {
+		int processors = Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES);
+		return Integer.highestOneBit(Math.max(processors, 1) * 2 - 1);
+	}
+
+	public void onError(Circuit circuit) {
+		long epoch = record(FAILURES);
+		if (thresholdReached(epoch)) {
+			circuit.tripBreaker(this);
+		}
+	}
+
+	public void onSuccess(Circuit circuit) {
+		record(CALLS);
+	}
+
+	private long record(int outcome) {
+		long epoch = clock.millis() / bucketDuration;
+		Bucket bucket = roll(epoch);
+		if (bucket != null) {
+			int cell = ((int) Thread.currentThread().getId() & stripeMask) * STRIPE_SIZE;
+			bucket.counters.incrementAndGet(cell + CALLS);
+			if (outcome == FAILURES) {
+				bucket.counters.incrementAndGet(cell + FAILURES);
+			}
+		}
+		return epoch;
+	}
+
+	/**
+	 * Finds the bucket of the time slice, installing a fresh one in place of
+	 * a bucket left from an earlier lap. The epoch and the counters of a
+	 * bucket are swapped in one compare-and-set, so no call waits for the
+	 * counters to be cleared and none is wiped out with the old ones.
+	 * 
+	 * @return null if the position already holds a later time slice
+	 */
+	private Bucket roll(long epoch) {
+		int position = (int) (epoch % bucketCount);
+		while (true) {
+			Bucket current = buckets.get(position);
+			if (current != null && current.epoch >= epoch) {
+				return current.epoch == epoch ? current : null;
+			}
+			Bucket next = new Bucket(epoch, (stripeMask + 1) * STRIPE_SIZE);
+			if (buckets.compareAndSet(position, current, next)) {
+				return next;
+			}
+		}
+	}
+
+	private boolean thresholdReached(long epoch) {
+		long calls = 0;
+		long failures = 0;
+		for (int position = 0; position < bucketCount; position++) {
+			Bucket bucket = buckets.get(position);
+			if (bucket != null && bucket.epoch > epoch - bucketCount && bucket.epoch <= epoch) {
+				for (int cell = 0; cell < bucket.counters.length(); cell += STRIPE_SIZE) {
+					calls += bucket.counters.get(cell + CALLS);
+					failures += bucket.counters.get(cell + FAILURES);
+				}
+			}
+		}
+		return calls > 0 && calls >= minimumNumberOfCalls && failures * 100 >= failureRateThreshold * calls;
+	}
+
+	@Override
+	void reset() {
+		for (int i = 0; i < bucketCount; i++) {
+			buckets.set(i, null);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("CircuitTimeWindow [windowDuration=%s]", bucketDuration * bucketCount);
+	}
+
+	/**
+	 * Counters of the calls made during one time slice.
+	 */
+	private static final class Bucket {
+		private final long epoch;
+		private final AtomicLongArray counters;
+
+		Bucket(long epoch, int size) {
+			this.epoch = epoch;
+			this.counters = new AtomicLongArray(size);
+		}
+	}
+
+}
@@ -0,0 +1,15 @@
+package com.github.jaceko.circuitswitcher;
+
+/**
+ * Time source of the circuits.
+ */
+public interface Clock {
+
+	/**
+	 * @return milliseconds elapsed since an arbitrary, fixed origin in the
+	 *         past. The value is never negative and never goes backwards,
+	 *         whatever happens to the wall clock.
+	 */
+	long millis();
+
+}
@@ -0,0 +1,18 @@
+package com.github.jaceko.circuitswitcher;
+
+/**
+ * Base of the closed states, which differ only in when they trip the
+ * circuit.
+ */
+abstract class ClosedState implements CircuitState {
+
+	public boolean connectionAvailable(Circuit circuit) {
+		return true;
+	}
+
+	/**
+	 * Forgets the recorded outcomes, called before the circuit closes.
+	 */
+	abstract void reset();
+
+}
@@ -0,0 +1,117 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Decides for a group of peer circuits, e.g. the nodes of one addressList,
+ * which of them may be taken out of service.
+ * 
+ * A circuit failing outlierDeviation percentage points more often than the
+ * average of its peers is ejected (opened) even if it has not reached its
+ * own failure threshold. No circuit opens, for whatever reason, while
+ * maxEjectionPercent percent of the group are already out of service, so
+ * when all nodes fail together, e.g. because of a shared database, some
+ * keep serving calls. One circuit may always open, however small the group
+ * and its maxEjectionPercent, unless maxEjectionPercent is 0. The count is
+ * not atomic with the transitions, so concurrent trips may exceed the cap by
+ * a few circuits.
+ */
+public class EjectionPolicy {
+
+	private final List<Circuit> circuits;
+	private final int maxEjectionPercent;
+	private final int outlierDeviation;
+
+	/**
+	 * @param maxEjectionPercent
+	 *            largest share of the circuits that may be open or half open
+	 *            at once, 100 for no limit
+	 * @param outlierDeviation
+	 *            percentage points by which a circuit's error rate has to
+	 *            exceed the average of its peers to be ejected, 0 disables
+	 *            outlier detection
+	 */
+	public EjectionPolicy(List<Circuit> circuits, int maxEjectionPercent, int outlierDeviation) {
+		this.circuits = new ArrayList<Circuit>(circuits);
+		this.maxEjectionPercent = maxEjectionPercent;
+		this.outlierDeviation = outlierDeviation;
+	}
+
+	/**
+	 * @return true if the given closed circuit may open without taking more
+	 *         than maxEjectionPercent of the group out of service, or if it
+	 *         is the first one to open
+	 */
+	public boolean mayEject(Circuit circuit) {
+		if (maxEjectionPercent >= 100) {
+			return true;
+		}
+		int ejected = 0;
+		for (Circuit peer : circuits) {
+			if (peer != circuit && !peer.isClosed()) {
+				ejected++;
+			}
+		}
+		return (ejected == 0 && maxEjectionPercent > 0)
+				|| (ejected + 1) * 100 <= circuits.size() * maxEjectionPercent;
+	}
+
+	/**
+	 * @return true if the circuit has recorded minimumNumberOfCalls calls
+	 *         and its error rate exceeds the average error rate of the peers
+	 *         that have by at least outlierDeviation percentage points
+	 */
+	public boolean isOutlier(Circuit circuit) {
+		if (outlierDeviation <= 0 || !hasEnoughCalls(circuit)) {
+			return false;
+		}
+		double sum = 0;
+		int peers = 0;
+		for (Circuit peer : circuits) {
+			if (peer != circuit && hasEnoughCalls(peer)) {
+				sum += peer.getErrorRate();
+				peers++;
+			}
+		}
+		return peers > 0 && circuit.getErrorRate() >= sum / peers + outlierDeviation;
+	}
+
+	private static boolean hasEnoughCalls(Circuit circuit) {
+		return circuit.getErrorRateCalls() >= circuit.getMinimumNumberOfCalls();
+	}
+
+	/**
+	 * Policies are equal when they group the same circuits with the same
+	 * limits, whatever the order of the circuits.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof EjectionPolicy)) {
+			return false;
+		}
+		EjectionPolicy other = (EjectionPolicy) obj;
+		return maxEjectionPercent == other.maxEjectionPercent && outlierDeviation == other.outlierDeviation
+				&& new HashSet<Circuit>(circuits).equals(new HashSet<Circuit>(other.circuits));
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * new HashSet<Circuit>(circuits).hashCode() + maxEjectionPercent) + outlierDeviation;
+	}
+
+	@Override
+	public String toString() {
+		List<String> addresses = new ArrayList<String>();
+		for (Circuit circuit : circuits) {
+			addresses.add(circuit.getTargetAddress());
+		}
+		return String.format("EjectionPolicy [circuits=%s, maxEjectionPercent=%d, outlierDeviation=%d]", addresses,
+				maxEjectionPercent, outlierDeviation);
+	}
+
+}
@@ -0,0 +1,48 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exponentially weighted share of failed calls in percent, weighing roughly
+ * the last window calls.
+ */
+class ErrorRate {
+
+	private final AtomicLong rate = new AtomicLong(Double.doubleToLongBits(0));
+	private final AtomicLong calls = new AtomicLong(0);
+	private final double alpha;
+
+	ErrorRate(int window) {
+		this.alpha = 2.0 / (Math.max(window, 1) + 1);
+	}
+
+	void record(boolean failed) {
+		calls.incrementAndGet();
+		double sample = failed ? 100 : 0;
+		while (true) {
+			long currentBits = rate.get();
+			double current = Double.longBitsToDouble(currentBits);
+			double next = current + alpha * (sample - current);
+			if (rate.compareAndSet(currentBits, Double.doubleToLongBits(next))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Starts over as if no call had been recorded.
+	 */
+	void reset() {
+		rate.set(Double.doubleToLongBits(0));
+		calls.set(0);
+	}
+
+	double get() {
+		return Double.longBitsToDouble(rate.get());
+	}
+
+	long getCalls() {
+		return calls.get();
+	}
+
+}
@@ -0,0 +1,28 @@
+package com.github.jaceko.circuitswitcher;
+
+/**
+ * Decides when a closed circuit trips.
+ */
+public enum FailurePolicy {
+
+	/**
+	 * Trips after failureThreshold failures in a row, any success starts the
+	 * count over.
+	 */
+	CONSECUTIVE_FAILURES,
+
+	/**
+	 * Trips when the share of failed calls among the last slidingWindowSize
+	 * calls reaches failureRateThreshold percent, once at least
+	 * minimumNumberOfCalls calls have been recorded.
+	 */
+	COUNT_WINDOW,
+
+	/**
+	 * Trips when the share of failed calls made during the last
+	 * slidingWindowDuration milliseconds reaches failureRateThreshold
+	 * percent, once at least minimumNumberOfCalls calls have been recorded.
+	 */
+	TIME_WINDOW
+
+}
@@ -0,0 +1,14 @@
+package com.github.jaceko.circuitswitcher;
+
+/**
+ * Lightweight probe of a target, run in the background against open
+ * circuits so that a recovered node is taken back before calls reach it.
+ */
+public interface HealthCheck {
+
+	/**
+	 * @return true if the target can serve calls again
+	 */
+	boolean isHealthy(String targetAddress);
+
+}
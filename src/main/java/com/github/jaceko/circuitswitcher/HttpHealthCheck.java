@@ -0,0 +1,60 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Sends an HTTP GET to the target address followed by a health path and
+ * takes any 2xx response as healthy.
+ */
+public class HttpHealthCheck implements HealthCheck {
+
+	private String path = "";
+	private int timeout = 1000;
+
+	public HttpHealthCheck() {
+	}
+
+	public HttpHealthCheck(String path) {
+		setPath(path);
+	}
+
+	public boolean isHealthy(String targetAddress) {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) new URL(targetAddress + path).openConnection();
+			connection.setConnectTimeout(timeout);
+			connection.setReadTimeout(timeout);
+			connection.setUseCaches(false);
+			int status = connection.getResponseCode();
+			if (status < 200 || status >= 300) {
+				return false;
+			}
+			connection.getInputStream().close();
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (connection != null) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Path appended to the target address, e.g. <code>/health</code>. Empty by
+	 * default, probing the address itself.
+	 */
+	public void setPath(String path) {
+		this.path = path == null ? "" : path;
+	}
+
+	/**
+	 * Connect and read timeout of the probe in milliseconds, 1000 by default.
+	 */
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+}
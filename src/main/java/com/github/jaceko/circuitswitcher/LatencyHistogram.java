@@ -0,0 +1,78 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size histogram of response times in milliseconds with log-linear
+ * buckets, in the style of HdrHistogram: values below 16 get a bucket each,
+ * every further power of two is split into 16 buckets, so a recorded value
+ * is off by at most 1/16 of itself. Values above {@link #MAX_VALUE} are
+ * counted as MAX_VALUE.
+ * <p>
+ * Recording increments one counter and takes no lock. It allocates nothing,
+ * all buckets are created up front (about 4 KB).
+ */
+class LatencyHistogram {
+
+	static final long MAX_VALUE = Integer.MAX_VALUE;
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	static final int BUCKETS = index(MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	void record(long value) {
+		long clamped = Math.max(0, Math.min(value, MAX_VALUE));
+		counts.incrementAndGet(index(clamped));
+		sum.addAndGet(clamped);
+		long currentMax = max.get();
+		while (clamped > currentMax && !max.compareAndSet(currentMax, clamped)) {
+			currentMax = max.get();
+		}
+	}
+
+	/**
+	 * Copies the bucket counts into the given array, which must hold
+	 * {@link #BUCKETS} values. Writers are not stopped, so the copy may
+	 * include some of the values recorded while it was taken.
+	 */
+	void copyCounts(long[] target) {
+		for (int i = 0; i < BUCKETS; i++) {
+			target[i] = counts.get(i);
+		}
+	}
+
+	long getSum() {
+		return sum.get();
+	}
+
+	long getMax() {
+		return max.get();
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return highest value counted in the given bucket
+	 */
+	static long highestValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+}
@@ -0,0 +1,55 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Power of two choices: picks two circuits at random and sends the call to
+ * the one with fewer calls in flight. A node that stalls, e.g. in a long GC
+ * pause, accumulates calls in flight and stops being chosen, at a constant
+ * cost per call and without any state shared between callers. When neither
+ * circuit is available, the first available one found from a random
+ * position is taken.
+ */
+public class LeastInFlightSelectionStrategy implements CircuitSelectionStrategy {
+
+	private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+
+	public Circuit select(List<Circuit> circuits) {
+		int size = circuits.size();
+		Random random = RANDOM.get();
+		int first = random.nextInt(size);
+		if (size > 1) {
+			int second = random.nextInt(size - 1);
+			if (second >= first) {
+				second++;
+			}
+			Circuit a = circuits.get(first);
+			Circuit b = circuits.get(second);
+			if (b.getInFlight() < a.getInFlight()) {
+				Circuit swap = a;
+				a = b;
+				b = swap;
+			}
+			if (a.connectionAvailable()) {
+				return a;
+			}
+			if (b.connectionAvailable()) {
+				return b;
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			Circuit target = circuits.get((first + i) % size);
+			if (target.connectionAvailable()) {
+				return target;
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,23 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Default {@link Clock}, based on {@link System#nanoTime()} so that stepping
+ * the wall clock neither keeps circuits open nor reopens them early. Counts
+ * from the moment the class was loaded, so the values are never negative.
+ */
+public final class MonotonicClock implements Clock {
+
+	public static final MonotonicClock INSTANCE = new MonotonicClock();
+
+	private static final long ORIGIN = System.nanoTime();
+
+	private MonotonicClock() {
+	}
+
+	public long millis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ORIGIN);
+	}
+
+}
@@ -0,0 +1,27 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selects the first available circuit, so all calls go to the most
+ * preferred healthy node and the others are standby nodes.
+ */
+public class OrderedSelectionStrategy implements CircuitSelectionStrategy {
+	private static final Logger LOG = LoggerFactory.getLogger(OrderedSelectionStrategy.class);
+
+	public Circuit select(List<Circuit> circuits) {
+		LOG.debug("Checking available targets:");
+		for (Circuit target : circuits) {
+			LOG.debug("Target: {}", target);
+			if (target.connectionAvailable()) {
+				LOG.debug("Selecting: {}", target);
+				return target;
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,75 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outcomes of the last N calls, each either marked (failed, slow) or not.
+ * The outcomes are kept in a ring buffer, every call claims the next slot and
+ * swaps its outcome in, adjusting the running totals by the outcome it
+ * replaced. No locks are taken and nothing is allocated per call.
+ */
+class OutcomeWindow {
+
+	private static final int EMPTY = 0;
+	private static final int UNMARKED = 1;
+	private static final int MARKED = 2;
+
+	private final AtomicIntegerArray outcomes;
+	private final AtomicLong nextSlot = new AtomicLong(0);
+	private final AtomicInteger calls = new AtomicInteger(0);
+	private final AtomicInteger marked = new AtomicInteger(0);
+
+	OutcomeWindow(int size) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Window size must be positive: " + size);
+		}
+		this.outcomes = new AtomicIntegerArray(size);
+	}
+
+	void record(boolean isMarked) {
+		int outcome = isMarked ? MARKED : UNMARKED;
+		int slot = (int) (nextSlot.getAndIncrement() % outcomes.length());
+		int replaced = outcomes.getAndSet(slot, outcome);
+		if (replaced == EMPTY) {
+			calls.incrementAndGet();
+		} else if (replaced == MARKED) {
+			marked.decrementAndGet();
+		}
+		if (outcome == MARKED) {
+			marked.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return true if the share of marked calls is at least rateThreshold
+	 *         percent and at least minimumNumberOfCalls have been recorded
+	 */
+	boolean rateReached(int rateThreshold, int minimumNumberOfCalls) {
+		int recorded = calls.get();
+		return recorded > 0 && recorded >= minimumNumberOfCalls
+				&& marked.get() * 100L >= (long) rateThreshold * recorded;
+	}
+
+	int getCalls() {
+		return calls.get();
+	}
+
+	int getMarked() {
+		return marked.get();
+	}
+
+	void reset() {
+		for (int i = 0; i < outcomes.length(); i++) {
+			int replaced = outcomes.getAndSet(i, EMPTY);
+			if (replaced != EMPTY) {
+				calls.decrementAndGet();
+			}
+			if (replaced == MARKED) {
+				marked.decrementAndGet();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,56 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moving average of response times that jumps to a higher sample at once
+ * and decays towards lower ones with time, so a node that got slow is
+ * avoided immediately and only trusted again gradually. Without samples it
+ * decays towards 0, so a node avoided for a peak is tried again.
+ */
+class PeakEwma {
+
+	private final AtomicLong estimate = new AtomicLong(Double.doubleToLongBits(0));
+	private final AtomicLong lastUpdate;
+	private final double decayTime;
+	private final Clock clock;
+
+	PeakEwma(long decayTime, Clock clock) {
+		this.decayTime = Math.max(decayTime, 1);
+		this.clock = clock;
+		this.lastUpdate = new AtomicLong(clock.millis());
+	}
+
+	void update(long duration) {
+		while (true) {
+			long now = clock.millis();
+			long currentBits = estimate.get();
+			double current = Double.longBitsToDouble(currentBits);
+			double next;
+			if (duration > current) {
+				next = duration;
+			} else {
+				double weight = weight(now);
+				next = current * weight + duration * (1 - weight);
+			}
+			if (estimate.compareAndSet(currentBits, Double.doubleToLongBits(next))) {
+				lastUpdate.set(now);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the estimate decayed by the time elapsed since the last sample
+	 */
+	double get() {
+		double current = Double.longBitsToDouble(estimate.get());
+		return current * weight(clock.millis());
+	}
+
+	private double weight(long now) {
+		long elapsed = Math.max(0, now - lastUpdate.get());
+		return Math.exp(-elapsed / decayTime);
+	}
+
+}
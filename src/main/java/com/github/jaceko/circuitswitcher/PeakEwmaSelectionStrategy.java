@@ -0,0 +1,49 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.List;
+
+/**
+ * Prefers the available circuit expected to answer first. The cost of a
+ * circuit is its peak EWMA response time multiplied by the number of calls
+ * it has in flight plus one, so a fast node is not piled on once calls queue
+ * up on it. Circuits of equal cost are taken in the order of preference.
+ */
+public class PeakEwmaSelectionStrategy implements CircuitSelectionStrategy {
+
+	/**
+	 * Response time assumed for circuits measured below the clock's
+	 * resolution or not at all, so that their calls in flight still count.
+	 */
+	private static final double MIN_LATENCY = 1;
+
+	public Circuit select(List<Circuit> circuits) {
+		boolean[] rejected = null;
+		while (true) {
+			int best = -1;
+			double bestCost = Double.MAX_VALUE;
+			for (int i = 0; i < circuits.size(); i++) {
+				if (rejected != null && rejected[i]) {
+					continue;
+				}
+				Circuit circuit = circuits.get(i);
+				double cost = Math.max(circuit.getLatencyEstimate(), MIN_LATENCY) * (circuit.getInFlight() + 1);
+				if (best == -1 || cost < bestCost) {
+					best = i;
+					bestCost = cost;
+				}
+			}
+			if (best == -1) {
+				return null;
+			}
+			Circuit target = circuits.get(best);
+			if (target.connectionAvailable()) {
+				return target;
+			}
+			if (rejected == null) {
+				rejected = new boolean[circuits.size()];
+			}
+			rejected[best] = true;
+		}
+	}
+
+}
@@ -0,0 +1,103 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting retries to a fraction of the successful calls, so
+ * that failing over does not multiply the load on a tier that is already
+ * struggling. Every successful call deposits retryRatio of a token, every
+ * retry takes a whole token, and the bucket holds at most maxRetries tokens.
+ * It starts full, so occasional failures are always retried.
+ * 
+ * The bucket is lock free. One budget can be shared by several clients to
+ * limit their retries together.
+ */
+public class RetryBudget {
+
+	/**
+	 * Tokens are kept in thousandths to deposit fractions without floating
+	 * point arithmetic.
+	 */
+	private static final long TOKEN = 1000;
+
+	private final long deposit;
+	private final long capacity;
+	private final AtomicLong balance;
+	private final AtomicLong retries = new AtomicLong(0);
+	private final AtomicLong exhausted = new AtomicLong(0);
+
+	/**
+	 * @param retryRatio
+	 *            retries allowed per successful call, e.g. 0.1 for one retry
+	 *            per ten successful calls
+	 * @param maxRetries
+	 *            retries that can be saved up
+	 */
+	public RetryBudget(double retryRatio, int maxRetries) {
+		this.deposit = Math.round(retryRatio * TOKEN);
+		this.capacity = maxRetries * TOKEN;
+		this.balance = new AtomicLong(capacity);
+	}
+
+	/**
+	 * Adds the share of a successful call. Does not write to the bucket
+	 * while it is full.
+	 */
+	public void deposit() {
+		while (true) {
+			long current = balance.get();
+			if (current >= capacity) {
+				return;
+			}
+			if (balance.compareAndSet(current, Math.min(capacity, current + deposit))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Takes a token for a retry.
+	 * 
+	 * @return false if the budget is spent and the call must not be retried
+	 */
+	public boolean tryAcquire() {
+		while (true) {
+			long current = balance.get();
+			if (current < TOKEN) {
+				exhausted.incrementAndGet();
+				return false;
+			}
+			if (balance.compareAndSet(current, current - TOKEN)) {
+				retries.incrementAndGet();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return number of retries the budget has allowed
+	 */
+	public long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * @return number of retries refused because the budget was spent
+	 */
+	public long getExhausted() {
+		return exhausted.get();
+	}
+
+	/**
+	 * @return retries currently available
+	 */
+	public double getBalance() {
+		return (double) balance.get() / TOKEN;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("RetryBudget [balance=%s, retries=%s, exhausted=%s]", getBalance(), retries, exhausted);
+	}
+
+}
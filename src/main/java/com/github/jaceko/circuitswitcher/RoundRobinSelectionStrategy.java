@@ -0,0 +1,28 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads calls over all available circuits in turn. Every call starts
+ * looking one circuit further than the previous one and takes the first
+ * available circuit from there, so open circuits are skipped and a circuit
+ * rejoins the rotation once it has recovered.
+ */
+public class RoundRobinSelectionStrategy implements CircuitSelectionStrategy {
+
+	private final AtomicInteger nextIndex = new AtomicInteger(0);
+
+	public Circuit select(List<Circuit> circuits) {
+		int size = circuits.size();
+		int start = (nextIndex.getAndIncrement() & Integer.MAX_VALUE) % size;
+		for (int i = 0; i < size; i++) {
+			Circuit target = circuits.get((start + i) % size);
+			if (target.connectionAvailable()) {
+				return target;
+			}
+		}
+		return null;
+	}
+
+}
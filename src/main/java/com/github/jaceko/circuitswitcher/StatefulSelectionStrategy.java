@@ -0,0 +1,19 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.List;
+
+/**
+ * Strategy keeping state about the circuits it selects from, e.g. a table
+ * built from their weights. A strategy is configured once but may serve many
+ * clients and, with circuits per operation, many lists of circuits, so target
+ * selectors ask it for an instance of its own for every list.
+ */
+public interface StatefulSelectionStrategy extends CircuitSelectionStrategy {
+
+	/**
+	 * @return strategy with state of its own, used to select from the given
+	 *         circuits only
+	 */
+	CircuitSelectionStrategy forCircuits(List<Circuit> circuits);
+
+}
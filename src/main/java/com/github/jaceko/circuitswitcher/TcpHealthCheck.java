@@ -0,0 +1,49 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Takes a target as healthy when a TCP connection to its host and port can be
+ * opened. The port defaults to 80 for http and 443 for https addresses.
+ */
+public class TcpHealthCheck implements HealthCheck {
+
+	private int timeout = 1000;
+
+	public boolean isHealthy(String targetAddress) {
+		Socket socket = new Socket();
+		try {
+			URI uri = new URI(targetAddress);
+			int port = uri.getPort();
+			if (port < 0) {
+				port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+			}
+			socket.connect(new InetSocketAddress(uri.getHost(), port), timeout);
+			return true;
+		} catch (URISyntaxException e) {
+			return false;
+		} catch (IllegalArgumentException e) {
+			return false;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// nothing to release
+			}
+		}
+	}
+
+	/**
+	 * Connect timeout in milliseconds, 1000 by default.
+	 */
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+}
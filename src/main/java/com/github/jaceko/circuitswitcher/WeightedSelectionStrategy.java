@@ -0,0 +1,163 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Spreads calls over the available circuits in proportion to their
+ * {@link Circuit#getWeight() weights}, so a node with four times the capacity
+ * of another gets four times as many calls.
+ * 
+ * Circuits are picked from an alias table in constant time. A circuit found
+ * open is dropped from the table. Every call also looks at one of the
+ * dropped circuits, without side effects, and only probes it once its open
+ * time has run out or it has otherwise recovered, taking it back as soon as
+ * it lets a call through again. The table is only rebuilt on these changes,
+ * never per call. A circuit that is only busy, with as many calls in flight
+ * as its limit or no trial permit left, stays in the table and the call goes
+ * to another available circuit instead.
+ * 
+ * The table belongs to one list of circuits, so target selectors use an
+ * instance of the strategy per list.
+ */
+public class WeightedSelectionStrategy implements StatefulSelectionStrategy {
+
+	private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+
+	private final AtomicReference<AliasTable> table = new AtomicReference<AliasTable>();
+
+	public CircuitSelectionStrategy forCircuits(List<Circuit> circuits) {
+		return new WeightedSelectionStrategy();
+	}
+
+	public Circuit select(List<Circuit> circuits) {
+		Random random = RANDOM.get();
+		while (true) {
+			AliasTable current = table.get();
+			if (current == null || current.source != circuits) {
+				AliasTable rebuilt = new AliasTable(circuits, circuits, Collections.<Circuit> emptyList());
+				table.compareAndSet(current, rebuilt);
+				continue;
+			}
+			if (!current.excluded.isEmpty()) {
+				Circuit excluded = current.excluded.get(random.nextInt(current.excluded.size()));
+				if (excluded.mayBeAvailable() && excluded.connectionAvailable()) {
+					table.compareAndSet(current, current.include(excluded));
+					return excluded;
+				}
+			}
+			if (current.included.isEmpty()) {
+				return null;
+			}
+			Circuit target = current.pick(random);
+			if (target.connectionAvailable()) {
+				return target;
+			}
+			if (!target.isOpen()) {
+				return other(current.included, target, random);
+			}
+			table.compareAndSet(current, current.exclude(target));
+		}
+	}
+
+	/**
+	 * @return an available circuit other than the busy one, starting from a
+	 *         random one of the circuits, or null
+	 */
+	private static Circuit other(List<Circuit> circuits, Circuit busy, Random random) {
+		int size = circuits.size();
+		int start = random.nextInt(size);
+		for (int i = 0; i < size; i++) {
+			Circuit circuit = circuits.get((start + i) % size);
+			if (circuit != busy && circuit.mayBeAvailable() && circuit.connectionAvailable()) {
+				return circuit;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Immutable alias table (Vose's method) over the included circuits.
+	 */
+	private static final class AliasTable {
+		private final List<Circuit> source;
+		private final List<Circuit> included;
+		private final List<Circuit> excluded;
+		private final double[] probability;
+		private final int[] alias;
+
+		AliasTable(List<Circuit> source, List<Circuit> included, List<Circuit> excluded) {
+			this.source = source;
+			this.included = included;
+			this.excluded = excluded;
+			int size = included.size();
+			probability = new double[size];
+			alias = new int[size];
+			long total = 0;
+			for (Circuit circuit : included) {
+				total += circuit.getWeight();
+			}
+			double[] scaled = new double[size];
+			int[] small = new int[size];
+			int[] large = new int[size];
+			int smallCount = 0;
+			int largeCount = 0;
+			for (int i = 0; i < size; i++) {
+				scaled[i] = (double) included.get(i).getWeight() * size / total;
+				if (scaled[i] < 1) {
+					small[smallCount++] = i;
+				} else {
+					large[largeCount++] = i;
+				}
+			}
+			while (smallCount > 0 && largeCount > 0) {
+				int less = small[--smallCount];
+				int more = large[--largeCount];
+				probability[less] = scaled[less];
+				alias[less] = more;
+				scaled[more] = scaled[more] + scaled[less] - 1;
+				if (scaled[more] < 1) {
+					small[smallCount++] = more;
+				} else {
+					large[largeCount++] = more;
+				}
+			}
+			while (largeCount > 0) {
+				probability[large[--largeCount]] = 1;
+			}
+			while (smallCount > 0) {
+				probability[small[--smallCount]] = 1;
+			}
+		}
+
+		Circuit pick(Random random) {
+			int column = random.nextInt(probability.length);
+			return included.get(random.nextDouble() < probability[column] ? column : alias[column]);
+		}
+
+		AliasTable exclude(Circuit circuit) {
+			List<Circuit> newIncluded = new ArrayList<Circuit>(included);
+			newIncluded.remove(circuit);
+			List<Circuit> newExcluded = new ArrayList<Circuit>(excluded);
+			newExcluded.add(circuit);
+			return new AliasTable(source, newIncluded, newExcluded);
+		}
+
+		AliasTable include(Circuit circuit) {
+			List<Circuit> newIncluded = new ArrayList<Circuit>(included);
+			newIncluded.add(circuit);
+			List<Circuit> newExcluded = new ArrayList<Circuit>(excluded);
+			newExcluded.remove(circuit);
+			return new AliasTable(source, newIncluded, newExcluded);
+		}
+	}
+
+}
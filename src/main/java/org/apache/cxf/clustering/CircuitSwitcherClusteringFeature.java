@@ -1,23 +1,73 @@
 package org.apache.cxf.clustering;
 
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.cxf.common.injection.NoJSR250Annotations;
 import org.apache.cxf.endpoint.ConduitSelector;
 import org.apache.cxf.endpoint.Endpoint;
 
+import com.github.jaceko.circuitswitcher.CircuitConfig;
+import com.github.jaceko.circuitswitcher.CircuitRegistry;
+import com.github.jaceko.circuitswitcher.CircuitSelectionStrategy;
+import com.github.jaceko.circuitswitcher.Clock;
+import com.github.jaceko.circuitswitcher.FailurePolicy;
+import com.github.jaceko.circuitswitcher.HealthCheck;
+import com.github.jaceko.circuitswitcher.HttpHealthCheck;
+import com.github.jaceko.circuitswitcher.LeastInFlightSelectionStrategy;
+import com.github.jaceko.circuitswitcher.OrderedSelectionStrategy;
+import com.github.jaceko.circuitswitcher.PeakEwmaSelectionStrategy;
+import com.github.jaceko.circuitswitcher.RetryBudget;
+import com.github.jaceko.circuitswitcher.RoundRobinSelectionStrategy;
+import com.github.jaceko.circuitswitcher.WeightedSelectionStrategy;
+
 @NoJSR250Annotations
 public class CircuitSwitcherClusteringFeature extends FailoverFeature {
 
 	private List<String> addressList;
-	private long resetTimeout;
-	private int failureThreshold;
+	private final CircuitConfig circuitConfig = new CircuitConfig();
 	private Long receiveTimeout;
+	private boolean threadSafe;
+	private CircuitRegistry circuitRegistry;
+	private CircuitSelectionStrategy selectionStrategy;
+	private ScheduledExecutorService scheduler;
+	private ScheduledExecutorService healthCheckScheduler;
+	private long hedgeDelay;
+	private List<String> hedgedOperations;
+	private HealthCheck healthCheck;
+	private long healthCheckInterval;
+	private int maxEjectionPercent = 100;
+	private int outlierDeviation;
+	private RetryBudget retryBudget;
+	private boolean perOperationCircuits;
 
 	@Override
 	public FailoverTargetSelector getTargetSelector() {
-		return new CircuitSwitcherTargetSelector(addressList, resetTimeout,
-				failureThreshold, receiveTimeout);
+		CircuitSwitcherTargetSelector selector = new CircuitSwitcherTargetSelector(null,
+				circuitConfig.getResetTimeout(), circuitConfig.getFailureThreshold(), receiveTimeout);
+		selector.setCircuitConfig(circuitConfig);
+		selector.setThreadSafe(threadSafe);
+		selector.setCircuitRegistry(circuitRegistry);
+		selector.setScheduler(scheduler);
+		selector.setHealthCheckScheduler(healthCheckScheduler);
+		if (selectionStrategy != null) {
+			selector.setSelectionStrategy(selectionStrategy);
+		}
+		selector.setHedgeDelay(hedgeDelay);
+		if (hedgedOperations != null) {
+			selector.setHedgedOperations(hedgedOperations);
+		}
+		selector.setHealthCheck(healthCheck);
+		selector.setHealthCheckInterval(healthCheckInterval);
+		selector.setMaxEjectionPercent(maxEjectionPercent);
+		selector.setOutlierDeviation(outlierDeviation);
+		selector.setRetryBudget(retryBudget);
+		selector.setPerOperationCircuits(perOperationCircuits);
+		if (addressList != null) {
+			selector.setAddressList(addressList);
+		}
+		selector.startHealthChecks();
+		return selector;
 	}
 
 	@Override
@@ -27,19 +77,307 @@ public class CircuitSwitcherClusteringFeature extends FailoverFeature {
 		return selector;
 	}
 
+	/**
+	 * Node addresses in the order of preference. An entry may end with
+	 * <code>;weight=N</code> to set the weight of its node.
+	 */
 	public void setAddressList(List<String> addressList) {
 		this.addressList = addressList;
 	}
 
 	public void setResetTimeout(long resetTimeout) {
-		this.resetTimeout = resetTimeout;
+		circuitConfig.setResetTimeout(resetTimeout);
 	}
 
 	public void setFailureThreshold(int failureThreshold) {
-		this.failureThreshold = failureThreshold;
+		circuitConfig.setFailureThreshold(failureThreshold);
 	}
 
 	public void setReceiveTimeout(Long receiveTimeout) {
 		this.receiveTimeout = receiveTimeout;
 	}
+
+	/**
+	 * Number of trial calls let through to a half open circuit at the same
+	 * time, 1 by default.
+	 */
+	public void setHalfOpenPermits(int halfOpenPermits) {
+		circuitConfig.setHalfOpenPermits(halfOpenPermits);
+	}
+
+	/**
+	 * Number of successful trial calls needed to close a half open circuit,
+	 * 1 by default.
+	 */
+	public void setHalfOpenSuccessThreshold(int halfOpenSuccessThreshold) {
+		circuitConfig.setHalfOpenSuccessThreshold(halfOpenSuccessThreshold);
+	}
+
+	/**
+	 * Decides when a closed circuit trips. With
+	 * {@link FailurePolicy#CONSECUTIVE_FAILURES} (the default) it trips after
+	 * failureThreshold failures in a row, with
+	 * {@link FailurePolicy#COUNT_WINDOW} on the failure rate of the most
+	 * recent calls and with {@link FailurePolicy#TIME_WINDOW} on the failure
+	 * rate of the calls made recently.
+	 */
+	public void setFailurePolicy(FailurePolicy failurePolicy) {
+		circuitConfig.setFailurePolicy(failurePolicy);
+	}
+
+	/**
+	 * Number of most recent calls the failure rate of
+	 * {@link FailurePolicy#COUNT_WINDOW} is computed over, 100 by default.
+	 */
+	public void setSlidingWindowSize(int slidingWindowSize) {
+		circuitConfig.setSlidingWindowSize(slidingWindowSize);
+	}
+
+	/**
+	 * Time in milliseconds the failure rate of
+	 * {@link FailurePolicy#TIME_WINDOW} is computed over, 10000 by default.
+	 */
+	public void setSlidingWindowDuration(long slidingWindowDuration) {
+		circuitConfig.setSlidingWindowDuration(slidingWindowDuration);
+	}
+
+	/**
+	 * Failure rate in percent at which the circuit trips, 50 by default.
+	 */
+	public void setFailureRateThreshold(int failureRateThreshold) {
+		circuitConfig.setFailureRateThreshold(failureRateThreshold);
+	}
+
+	/**
+	 * Number of calls a window has to record before it may trip the circuit,
+	 * 10 by default.
+	 */
+	public void setMinimumNumberOfCalls(int minimumNumberOfCalls) {
+		circuitConfig.setMinimumNumberOfCalls(minimumNumberOfCalls);
+	}
+
+	/**
+	 * Resolves target address and receive timeout per exchange instead of
+	 * modifying the shared endpoint and conduit, which makes the created
+	 * client safe to share between threads.
+	 */
+	public void setThreadSafe(boolean threadSafe) {
+		this.threadSafe = threadSafe;
+	}
+
+	/**
+	 * Registry the circuits are taken from. Clients whose features share a
+	 * registry share the circuit of each address, use
+	 * {@link CircuitRegistry#shared()} to share them JVM-wide. By default
+	 * every client has its own circuits. Clients sharing a circuit have to
+	 * agree on its weight and ejection settings.
+	 */
+	public void setCircuitRegistry(CircuitRegistry circuitRegistry) {
+		this.circuitRegistry = circuitRegistry;
+	}
+
+	/**
+	 * Duration in milliseconds above which a call counts as slow. Slow calls
+	 * are tracked separately from failures, over the last slidingWindowSize
+	 * calls. Disabled (0) by default.
+	 */
+	public void setSlowCallDurationThreshold(long slowCallDurationThreshold) {
+		circuitConfig.setSlowCallDurationThreshold(slowCallDurationThreshold);
+	}
+
+	/**
+	 * Share of slow calls in percent at which the circuit trips, 100 by
+	 * default.
+	 */
+	public void setSlowCallRateThreshold(int slowCallRateThreshold) {
+		circuitConfig.setSlowCallRateThreshold(slowCallRateThreshold);
+	}
+
+	/**
+	 * Strategy choosing the node each call is sent to. By default
+	 * ({@link OrderedSelectionStrategy}) calls go to the first available node
+	 * of the addressList, {@link RoundRobinSelectionStrategy} spreads them
+	 * over all available nodes, {@link LeastInFlightSelectionStrategy} to the
+	 * less busy of two random nodes, {@link PeakEwmaSelectionStrategy} to the
+	 * node expected to answer first and {@link WeightedSelectionStrategy}
+	 * according to the weights of the addressList entries.
+	 */
+	public void setSelectionStrategy(CircuitSelectionStrategy selectionStrategy) {
+		this.selectionStrategy = selectionStrategy;
+	}
+
+	/**
+	 * Scheduler the retries of asynchronous invocations are run on, so that
+	 * failing over never blocks the thread that reported the failure. A
+	 * scheduler with daemon threads shared by all clients is used by
+	 * default.
+	 */
+	public void setScheduler(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Time in milliseconds after which an asynchronous invocation of one of
+	 * the hedgedOperations that has not completed yet is also sent to the
+	 * next available node. The first response is returned to the caller.
+	 * Disabled (0) by default.
+	 */
+	public void setHedgeDelay(long hedgeDelay) {
+		this.hedgeDelay = hedgeDelay;
+	}
+
+	/**
+	 * Names of the operations that may be hedged, only idempotent operations
+	 * belong here.
+	 */
+	public void setHedgedOperations(List<String> hedgedOperations) {
+		this.hedgedOperations = hedgedOperations;
+	}
+
+	/**
+	 * Factor the time a circuit stays open grows by with every failed probe
+	 * of a half open circuit, 1 (no growth) by default.
+	 */
+	public void setBackoffMultiplier(double backoffMultiplier) {
+		circuitConfig.setBackoffMultiplier(backoffMultiplier);
+	}
+
+	/**
+	 * Upper bound in milliseconds of the time a circuit stays open when it
+	 * grows with failed probes, one minute by default.
+	 */
+	public void setMaxResetTimeout(long maxResetTimeout) {
+		circuitConfig.setMaxResetTimeout(maxResetTimeout);
+	}
+
+	/**
+	 * Largest fraction, between 0 and 1, of the open time taken off at random
+	 * each time a circuit opens, 0 by default.
+	 */
+	public void setResetTimeoutJitter(double resetTimeoutJitter) {
+		circuitConfig.setResetTimeoutJitter(resetTimeoutJitter);
+	}
+
+	/**
+	 * Time in milliseconds over which a lower response time takes over the
+	 * latency estimate used by {@link PeakEwmaSelectionStrategy}, 10000 by
+	 * default.
+	 */
+	public void setLatencyDecayTime(long latencyDecayTime) {
+		circuitConfig.setLatencyDecayTime(latencyDecayTime);
+	}
+
+	/**
+	 * Time source of the circuits, a monotonic clock based on
+	 * {@link System#nanoTime()} by default.
+	 */
+	public void setClock(Clock clock) {
+		circuitConfig.setClock(clock);
+	}
+
+	/**
+	 * Probe run in the background against the nodes of open circuits, e.g.
+	 * {@link HttpHealthCheck}. A node passing it is closed before any call is
+	 * sent to it. Disabled (null) by default.
+	 */
+	public void setHealthCheck(HealthCheck healthCheck) {
+		this.healthCheck = healthCheck;
+	}
+
+	/**
+	 * Time in milliseconds between two health check rounds, health checks
+	 * are disabled while 0 (the default).
+	 */
+	public void setHealthCheckInterval(long healthCheckInterval) {
+		this.healthCheckInterval = healthCheckInterval;
+	}
+
+	/**
+	 * Scheduler the health checks are run on, each node probed by a task of
+	 * its own. By default a scheduler with daemon threads shared by the
+	 * health checks of all clients, apart from the one of the retries.
+	 */
+	public void setHealthCheckScheduler(ScheduledExecutorService healthCheckScheduler) {
+		this.healthCheckScheduler = healthCheckScheduler;
+	}
+
+	/**
+	 * Largest share in percent of the nodes whose circuits may be open at
+	 * once. Once it is reached no further circuit opens, so that some nodes
+	 * keep serving calls when all of them fail together. The circuit of one
+	 * node may always open unless it is 0. 100 (no limit) by default.
+	 */
+	public void setMaxEjectionPercent(int maxEjectionPercent) {
+		this.maxEjectionPercent = maxEjectionPercent;
+	}
+
+	/**
+	 * Percentage points by which the error rate of a node has to exceed the
+	 * average error rate of the other nodes for its circuit to open before
+	 * reaching the failure threshold. 0 (no outlier detection) by default.
+	 */
+	public void setOutlierDeviation(int outlierDeviation) {
+		this.outlierDeviation = outlierDeviation;
+	}
+
+	/**
+	 * Limits failover retries and hedged attempts to a share of the
+	 * successful calls. Once it is spent failed calls are not retried. The
+	 * same budget may be given to several clients. Unlimited (null) by
+	 * default.
+	 */
+	public void setRetryBudget(RetryBudget retryBudget) {
+		this.retryBudget = retryBudget;
+	}
+
+	/**
+	 * Largest number of calls a node may have in flight. A saturated node is
+	 * skipped until some of its calls complete, and calls fail at once when
+	 * all nodes are saturated. Unlimited (0) by default.
+	 */
+	public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+		circuitConfig.setMaxConcurrentCalls(maxConcurrentCalls);
+	}
+
+	/**
+	 * Lets every node's circuit discover how many calls the node can take at
+	 * once: the limit grows while response times stay close to their long
+	 * term average and is cut when they rise or calls fail. Calls over the
+	 * limit go to the next available node. Disabled by default.
+	 */
+	public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+		circuitConfig.setAdaptiveConcurrency(adaptiveConcurrency);
+	}
+
+	/**
+	 * Adaptive concurrency limit every node starts with, 20 by default.
+	 */
+	public void setInitialConcurrencyLimit(int initialConcurrencyLimit) {
+		circuitConfig.setInitialConcurrencyLimit(initialConcurrencyLimit);
+	}
+
+	/**
+	 * Upper bound of the adaptive concurrency limit, 200 by default.
+	 */
+	public void setMaxConcurrencyLimit(int maxConcurrencyLimit) {
+		circuitConfig.setMaxConcurrencyLimit(maxConcurrencyLimit);
+	}
+
+	/**
+	 * Factor by which a response time has to exceed the long term average
+	 * for the adaptive concurrency limit to be cut, 2 by default.
+	 */
+	public void setLatencyTolerance(double latencyTolerance) {
+		circuitConfig.setLatencyTolerance(latencyTolerance);
+	}
+
+	/**
+	 * Gives every operation circuits of its own, so an operation failing on a
+	 * node fails over on its own while the other operations keep using that
+	 * node. Only applies to invocations of a known operation (JAX-WS and
+	 * simple frontend). Disabled by default.
+	 */
+	public void setPerOperationCircuits(boolean perOperationCircuits) {
+		this.perOperationCircuits = perOperationCircuits;
+	}
 }
@@ -0,0 +1,56 @@
+package org.apache.cxf.clustering;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holder of the schedulers the selectors run their background work on when
+ * none has been configured. Their threads are daemons, so they never keep the
+ * JVM from exiting.
+ */
+final class CircuitSwitcherScheduler {
+
+	private CircuitSwitcherScheduler() {
+	}
+
+	static ScheduledExecutorService shared() {
+		return Holder.SCHEDULER;
+	}
+
+	/**
+	 * Scheduler of the health checks, apart from the shared one so that
+	 * probes waiting for their timeout never delay retries and hedges.
+	 */
+	static ScheduledExecutorService healthChecks() {
+		return HealthCheckHolder.SCHEDULER;
+	}
+
+	private static final class Holder {
+		static final ScheduledExecutorService SCHEDULER = new ScheduledThreadPoolExecutor(Math.max(2, Runtime
+				.getRuntime().availableProcessors()), new DaemonThreadFactory("circuit-switcher-"));
+	}
+
+	private static final class HealthCheckHolder {
+		static final ScheduledExecutorService SCHEDULER = new ScheduledThreadPoolExecutor(4,
+				new DaemonThreadFactory("circuit-switcher-health-"));
+	}
+
+	private static final class DaemonThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+		private final String prefix;
+
+		DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, prefix + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
@@ -1,14 +1,28 @@
 package org.apache.cxf.clustering;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.cxf.BusException;
 import org.apache.cxf.endpoint.Client;
+import org.apache.cxf.endpoint.ClientCallback;
 import org.apache.cxf.endpoint.Endpoint;
 import org.apache.cxf.endpoint.Retryable;
 import org.apache.cxf.helpers.CastUtils;
@@ -16,34 +30,141 @@ import org.apache.cxf.interceptor.Fault;
 import org.apache.cxf.message.Exchange;
 import org.apache.cxf.message.Message;
 import org.apache.cxf.message.MessageUtils;
+import org.apache.cxf.service.model.BindingOperationInfo;
 import org.apache.cxf.transport.Conduit;
+import org.apache.cxf.transport.ConduitInitiator;
+import org.apache.cxf.transport.ConduitInitiatorManager;
+import org.apache.cxf.transport.MessageObserver;
 import org.apache.cxf.transport.http.HTTPConduit;
 import org.apache.cxf.transports.http.configuration.HTTPClientPolicy;
+import org.apache.cxf.ws.addressing.AttributedURIType;
+import org.apache.cxf.ws.addressing.EndpointReferenceType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.jaceko.circuitswitcher.Circuit;
+import com.github.jaceko.circuitswitcher.CircuitConfig;
+import com.github.jaceko.circuitswitcher.CircuitIndex;
+import com.github.jaceko.circuitswitcher.CircuitRegistry;
+import com.github.jaceko.circuitswitcher.CircuitSelectionStrategy;
+import com.github.jaceko.circuitswitcher.Clock;
+import com.github.jaceko.circuitswitcher.EjectionPolicy;
+import com.github.jaceko.circuitswitcher.HealthCheck;
+import com.github.jaceko.circuitswitcher.OrderedSelectionStrategy;
+import com.github.jaceko.circuitswitcher.RetryBudget;
+import com.github.jaceko.circuitswitcher.StatefulSelectionStrategy;
 
 public class CircuitSwitcherTargetSelector extends FailoverTargetSelector {
 	private static final Logger LOG = LoggerFactory
 			.getLogger(CircuitSwitcherTargetSelector.class);
 
 	private static final String IS_SELECTED = "org.apache.cxf.clustering.CircuitBreakerTargetSelector.IS_SELECTED";
+	private static final String SELECTED_CIRCUIT = "org.apache.cxf.clustering.CircuitBreakerTargetSelector.SELECTED_CIRCUIT";
+	private static final String CALL_START = "org.apache.cxf.clustering.CircuitBreakerTargetSelector.CALL_START";
+	private static final String TRIAL_PERIOD = "org.apache.cxf.clustering.CircuitBreakerTargetSelector.TRIAL_PERIOD";
+	/**
+	 * Suffix of an addressList entry giving the weight of its node, e.g.
+	 * <code>http://host/service;weight=4</code>.
+	 */
+	private static final String WEIGHT = ";weight=";
+	private static final String CALL_CIRCUIT = "org.apache.cxf.clustering.CircuitBreakerTargetSelector.CALL_CIRCUIT";
+	private static final String OPERATION_CIRCUITS = "org.apache.cxf.clustering.CircuitBreakerTargetSelector.OPERATION_CIRCUITS";
+	private static final String HEDGED_CALLBACK = "org.apache.cxf.clustering.CircuitBreakerTargetSelector.HEDGED_CALLBACK";
 
-	private Collection<Circuit> circuits = new LinkedHashSet<Circuit>();
-	private long resetTimeout;
-	private int failureThreshold;
+	/**
+	 * Immutable snapshot of the configured circuits. Readers never lock, the
+	 * whole group is replaced when the address list changes.
+	 */
+	private volatile CircuitGroup circuits = new CircuitGroup(Collections.<Circuit> emptyList(), null);
+
+	/**
+	 * When set, every operation gets circuits of its own, created on its
+	 * first invocation, so an operation failing on a node does not take the
+	 * node away from the other operations.
+	 */
+	private boolean perOperationCircuits;
+	private final ConcurrentMap<String, CircuitGroup> operationCircuits = new ConcurrentHashMap<String, CircuitGroup>();
+	private CircuitConfig circuitConfig = new CircuitConfig();
 
 	private Long receiveTimeout;
 
+	/**
+	 * When set, the target address and receive timeout are resolved per
+	 * exchange and neither the endpoint nor the conduits' client policy is
+	 * ever modified, so a single client can be shared by many threads.
+	 */
+	private boolean threadSafe;
+
+	/**
+	 * One conduit per circuit address, used in thread safe mode only.
+	 */
+	private final ConcurrentMap<String, Conduit> circuitConduits = new ConcurrentHashMap<String, Conduit>();
+
+	/**
+	 * Guards the find-or-create sequence of {@link #getSelectedConduit(Message)}.
+	 */
+	private final Object conduitLock = new Object();
+
+	/**
+	 * Source of shared circuits, null when every selector owns its circuits.
+	 */
+	private CircuitRegistry circuitRegistry;
+
+	private CircuitSelectionStrategy selectionStrategy = new OrderedSelectionStrategy();
+
+	/**
+	 * Runs the retries of asynchronous invocations, the shared daemon
+	 * scheduler when null.
+	 */
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Time after which an asynchronous invocation of one of the
+	 * hedgedOperations is also sent to another circuit, 0 disables hedging.
+	 */
+	private long hedgeDelay;
+	private List<String> hedgedOperations = Collections.emptyList();
+
+	/**
+	 * Probes the targets of open circuits every healthCheckInterval
+	 * milliseconds, null disables health checks.
+	 */
+	private HealthCheck healthCheck;
+	private long healthCheckInterval;
+	private ScheduledFuture<?> healthChecks;
+
+	/**
+	 * Runs the health checks, apart from the scheduler of the retries so that
+	 * slow probes never delay a failover.
+	 */
+	private ScheduledExecutorService healthCheckScheduler;
+
+	/**
+	 * Addresses whose probe is still running, so that a node that does not
+	 * answer is not probed again meanwhile.
+	 */
+	private final Set<String> probedAddresses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Settings of the ejection policy shared by the circuits of the
+	 * addressList, which gets none while maxEjectionPercent is 100 and
+	 * outlierDeviation 0.
+	 */
+	private int maxEjectionPercent = 100;
+	private int outlierDeviation;
+
+	/**
+	 * Limits failover retries and hedged attempts, null for no limit.
+	 */
+	private RetryBudget retryBudget;
+
 	public CircuitSwitcherTargetSelector(List<String> addressList, long resetTimeout,
 			int failureThreshold, Long receiveTimeout) {
-		this.resetTimeout = resetTimeout;
-		this.failureThreshold = failureThreshold;
+		circuitConfig.setResetTimeout(resetTimeout);
+		circuitConfig.setFailureThreshold(failureThreshold);
 		this.receiveTimeout = receiveTimeout;
 		if (addressList != null) {
 			setAddressList(new ArrayList<String>(addressList));
-			LOG.info("Failover nodes: " + addressList.toString());
 		}
 		LOG.info("Failover reset timeout: " + resetTimeout);
 		LOG.info("Failure threshold: " + failureThreshold);
@@ -51,6 +172,100 @@ public class CircuitSwitcherTargetSelector extends FailoverTargetSelector {
 
 	}
 
+	/**
+	 * Besides registering the invocation, wraps the callback of asynchronous
+	 * invocations so that failing over does not block the transport thread
+	 * reporting the failure.
+	 */
+	@Override
+	public void prepare(Message message) {
+		super.prepare(message);
+		Exchange exchange = message.getExchange();
+		ClientCallback callback = exchange.get(ClientCallback.class);
+		Client client = exchange.get(Client.class);
+		if (callback != null && client != null && !(callback instanceof FailoverCallback)) {
+			InvocationKey key = new InvocationKey(exchange);
+			InvocationContext invocation = getInvocation(key);
+			if (invocation == null) {
+				return;
+			}
+			if (!(callback instanceof HedgedCallback) && isHedged(invocation)) {
+				HedgedCallback hedgedCallback = new HedgedCallback(callback);
+				scheduleHedge(hedgedCallback, client, invocation, getCircuitGroup(invocation).circuits);
+				invocation.getContext().put(HEDGED_CALLBACK, hedgedCallback);
+				callback = hedgedCallback;
+			}
+			exchange.put(ClientCallback.class, new FailoverCallback(callback, client, key, invocation));
+		}
+	}
+
+	private boolean isHedged(InvocationContext invocation) {
+		BindingOperationInfo operation = invocation.getBindingOperationInfo();
+		return hedgeDelay > 0 && operation != null
+				&& hedgedOperations.contains(operation.getName().getLocalPart());
+	}
+
+	/**
+	 * Sends a copy of the invocation to another circuit if the first attempt
+	 * has not completed within hedgeDelay. The context is copied right away,
+	 * on the caller's thread, as the caller keeps writing to it while the
+	 * hedge waits.
+	 */
+	private void scheduleHedge(final HedgedCallback hedgedCallback, final Client client,
+			final InvocationContext invocation, final List<Circuit> candidates) {
+		final Map<String, Object> hedgeContext = copyContext(invocation.getContext());
+		getScheduler().schedule(new Runnable() {
+			public void run() {
+				if (hedgedCallback.isDone()) {
+					return;
+				}
+				Circuit hedgeTarget = getHedgeTarget(hedgedCallback.primary, candidates);
+				if (hedgeTarget == null) {
+					return;
+				}
+				if (retryBudget != null && !retryBudget.tryAcquire()) {
+					LOG.debug("Retry budget exhausted, not hedging: {}", retryBudget);
+					hedgeTarget.callFinished();
+					return;
+				}
+				LOG.debug("Hedging invocation to {}", hedgeTarget);
+				select(hedgeContext, hedgeTarget);
+				hedgeContext.put(IS_SELECTED, "");
+				overrideAddressProperty(hedgeContext, hedgeTarget.getTargetAddress());
+				hedgedCallback.attemptStarted();
+				try {
+					client.invoke(hedgedCallback, invocation.getBindingOperationInfo(), invocation.getParams(),
+							hedgeContext, null);
+				} catch (Exception e) {
+					releaseCall(hedgeContext);
+					hedgedCallback.handleException(null, e);
+				}
+			}
+		}, hedgeDelay, TimeUnit.MILLISECONDS);
+	}
+
+	private Circuit getHedgeTarget(Circuit primary, List<Circuit> candidates) {
+		for (Circuit target : candidates) {
+			if (!target.equals(primary) && target.connectionAvailable()) {
+				return target;
+			}
+		}
+		return null;
+	}
+
+	private static Map<String, Object> copyContext(Map<String, Object> context) {
+		Map<String, Object> copy = new HashMap<String, Object>(context);
+		copy.remove(CALL_CIRCUIT);
+		copy.remove(CALL_START);
+		copy.remove(HEDGED_CALLBACK);
+		Map<?, ?> requestContext = (Map<?, ?>) context.get(Client.REQUEST_CONTEXT);
+		if (requestContext != null) {
+			copy.put(Client.REQUEST_CONTEXT, new HashMap<Object, Object>(requestContext));
+		}
+		copy.put(Client.RESPONSE_CONTEXT, new HashMap<String, Object>());
+		return copy;
+	}
+
 	/**
 	 * Called when a Conduit is actually required.
 	 * 
@@ -58,7 +273,7 @@ public class CircuitSwitcherTargetSelector extends FailoverTargetSelector {
 	 * @return the Conduit to use for mediation of the message
 	 */
 
-	public synchronized Conduit selectConduit(Message message) {
+	public Conduit selectConduit(Message message) {
 		Conduit c = message.get(Conduit.class);
 		if (c == null) {
 
@@ -67,88 +282,167 @@ public class CircuitSwitcherTargetSelector extends FailoverTargetSelector {
 			InvocationContext invocation = getInvocation(key);
 
 			if ((invocation != null) && !invocation.getContext().containsKey(IS_SELECTED)) {
-				Endpoint target = getAvailableTarget();
-				if (target != null && targetChanged(message, target)) {
-					setEndpoint(target);
-					message.put(Message.ENDPOINT_ADDRESS, target.getEndpointInfo().getAddress());
-					overrideAddressProperty(invocation.getContext());
+				Circuit target = getAvailableTarget(invocation);
+				if (target != null) {
+					select(invocation.getContext(), target);
+				}
+				if (target != null && targetChanged(message, target.getTargetAddress())) {
+					String address = target.getTargetAddress();
+					if (!threadSafe) {
+						setEndpoint(retarget(address));
+					}
+					message.put(Message.ENDPOINT_ADDRESS, address);
+					overrideAddressProperty(invocation.getContext(), address);
 					invocation.getContext().put(IS_SELECTED, "");
 				} else if (target == null) {
 					throw new Fault(new IOException("No available targets"));
 				}
 			}
 
+			if (invocation != null) {
+				startCall(invocation.getContext());
+			}
+
 			message.put(CONDUIT_COMPARE_FULL_URL, Boolean.TRUE);
-			c = getSelectedConduit(message);
+			c = threadSafe ? getCircuitConduit(message, invocation) : getSelectedConduit(message);
 		}
 		if (receiveTimeout != null) {
-			HTTPClientPolicy httpClientPolicy = ((HTTPConduit) c).getClient();
-			httpClientPolicy.setReceiveTimeout(receiveTimeout);
+			if (threadSafe) {
+				message.put(Message.RECEIVE_TIMEOUT, receiveTimeout);
+			} else {
+				HTTPClientPolicy httpClientPolicy = ((HTTPConduit) c).getClient();
+				httpClientPolicy.setReceiveTimeout(receiveTimeout);
+			}
 		}
 
 		return c;
 	}
 
-	private boolean targetChanged(Message message, Endpoint target) {
+	/**
+	 * Thread safe counterpart of {@link #getSelectedConduit(Message)}. Looks
+	 * up the conduit dedicated to the circuit selected for the exchange,
+	 * creating it on first use, without touching the shared endpoint.
+	 */
+	private Conduit getCircuitConduit(Message message, InvocationContext invocation) {
+		Circuit circuit = null;
+		if (invocation != null) {
+			circuit = (Circuit) invocation.getContext().get(SELECTED_CIRCUIT);
+		}
+		if (circuit == null) {
+			circuit = circuits.index.find((String) message.get(Message.ENDPOINT_ADDRESS));
+		}
+		if (circuit == null) {
+			return getSelectedConduit(message);
+		}
+
+		String address = circuit.getTargetAddress();
+		Conduit c = circuitConduits.get(address);
+		if (c == null) {
+			Conduit created = createConduit(message, address);
+			c = circuitConduits.putIfAbsent(address, created);
+			if (c == null) {
+				c = created;
+				conduits.add(c);
+			} else {
+				created.close();
+			}
+		}
+		replaceEndpointAddressPropertyIfNeeded(message, address, c);
+		message.resetContextCache();
+		message.put(Conduit.class, c);
+		return c;
+	}
+
+	/**
+	 * Looks up or creates the conduit for the message address. Selection
+	 * itself is lock free, but the inherited find-or-create is not atomic, so
+	 * it is serialized to keep concurrent calls from creating duplicate
+	 * conduits for the same address.
+	 */
+	@Override
+	protected Conduit getSelectedConduit(Message message) {
+		synchronized (conduitLock) {
+			return super.getSelectedConduit(message);
+		}
+	}
+
+	private Conduit createConduit(Message message, String address) {
+		Exchange exchange = message.getExchange();
+		try {
+			ConduitInitiatorManager conduitInitiatorMgr = exchange.getBus().getExtension(
+					ConduitInitiatorManager.class);
+			ConduitInitiator conduitInitiator = conduitInitiatorMgr.getConduitInitiator(getEndpoint()
+					.getEndpointInfo().getTransportId());
+			EndpointReferenceType target = new EndpointReferenceType();
+			AttributedURIType targetAddress = new AttributedURIType();
+			targetAddress.setValue(address);
+			target.setAddress(targetAddress);
+
+			Conduit c = conduitInitiator.getConduit(getEndpoint().getEndpointInfo(), target);
+			MessageObserver observer = exchange.get(MessageObserver.class);
+			if (observer != null) {
+				c.setMessageObserver(observer);
+			}
+			return c;
+		} catch (BusException e) {
+			throw new Fault(e);
+		} catch (IOException e) {
+			throw new Fault(e);
+		}
+	}
+
+	private boolean targetChanged(Message message, String targetAddress) {
 		Object endpoinAddress = message.get(Message.ENDPOINT_ADDRESS);
-		return endpoinAddress == null
-				|| !endpoinAddress.toString().contains(target.getEndpointInfo().getAddress());
+		return endpoinAddress == null || !endpoinAddress.toString().contains(targetAddress);
 	}
 
 	/**
-	 * Get the failover target endpoint, if a suitable one is available.
-	 * 
-	 * @param exchange
-	 *            the current Exchange
-	 * @param invocation
-	 *            the current InvocationContext
-	 * @return a failover endpoint if one is available
-	 * 
+	 * Get the failover target circuit, if a suitable one is available and
+	 * the retry budget allows another retry.
 	 * 
+	 * @return a failover circuit if one is available
 	 */
-	@Override
-	protected Endpoint getFailoverTarget(Exchange exchange, InvocationContext invocation) {
-		Endpoint failoverTarget = getAvailableTarget();
-		if (failoverTarget != null) {
-			LOG.error("Connection error, retrying " + failoverTarget.getEndpointInfo().getAddress());
-		} else {
+	private Circuit getFailoverTarget(InvocationContext invocation) {
+		Circuit failoverTarget = getAvailableTarget(invocation);
+		if (failoverTarget == null) {
 			LOG.error("No more failover nodes available");
+			return null;
+		}
+		if (retryBudget != null && !retryBudget.tryAcquire()) {
+			LOG.error("Retry budget exhausted, not failing over: {}", retryBudget);
+			failoverTarget.callFinished();
+			return null;
 		}
+		LOG.error("Connection error, retrying " + failoverTarget.getTargetAddress());
 		return failoverTarget;
 	}
 
 	/**
-	 * Get first available target endpoint, if a suitable one is available.
+	 * Get the target circuit chosen by the selection strategy, if a suitable
+	 * one is available. Works on the current circuits snapshot so it never
+	 * needs to lock.
 	 * 
-	 * @return healthy endpoint if one is available
+	 * @return healthy circuit if one is available
 	 */
-	private Endpoint getAvailableTarget() {
-
-		if ((circuits == null) || (circuits.isEmpty())) {
+	private Circuit getAvailableTarget(InvocationContext invocation) {
+		CircuitGroup snapshot = getCircuitGroup(invocation);
+		if (snapshot.circuits.isEmpty()) {
 			LOG.error("No adresses configured");
 			return null;
 		}
+		return snapshot.strategy.select(snapshot.circuits);
+	}
 
-		Iterator<Circuit> iterator = circuits.iterator();
-		String alternateAddress = null;
-		LOG.info("Checking available targets:");
-		while (iterator.hasNext()) {
-			Circuit target = iterator.next();
-			LOG.info("Target: {}", target);
-			if (target.connectionAvailable()) {
-				alternateAddress = target.getTargetAddress();
-				LOG.info("Selecting: {}", target);
-				break;
-			}
-
-		}
-		if (alternateAddress != null) {
-			Endpoint distributionTarget = getEndpoint();
-			distributionTarget.getEndpointInfo().setAddress(alternateAddress);
-			return distributionTarget;
-		} else {
-			return null;
-		}
+	/**
+	 * Points the selector's endpoint at the given address. The address used
+	 * by the current exchange is always taken from the selected circuit, never
+	 * read back from the endpoint, so concurrent callers can not observe each
+	 * other's target.
+	 */
+	private Endpoint retarget(String address) {
+		Endpoint distributionTarget = getEndpoint();
+		distributionTarget.getEndpointInfo().setAddress(address);
+		return distributionTarget;
 	}
 
 	/**
@@ -162,17 +456,26 @@ public class CircuitSwitcherTargetSelector extends FailoverTargetSelector {
 		InvocationContext invocation = getInvocation(key);
 		boolean failover = false;
 		Conduit old = (Conduit) exchange.getOutMessage().remove(Conduit.class.getName());
-		if (requiresFailover(exchange)) {
+		if (invocation != null) {
+			finishCall(invocation.getContext());
+		}
+		if (requiresFailover(exchange) && exchange.get(ClientCallback.class) instanceof FailoverCallback) {
+			LOG.debug("Failover left to the callback {}", invocation.getContext());
+		} else if (requiresFailover(exchange)) {
 			onFailure(invocation.getContext());
 			LOG.debug("Failover {}", invocation.getContext());
-			Endpoint failoverTarget = getFailoverTarget(exchange, invocation);
+			Circuit failoverTarget = getFailoverTarget(invocation);
 			if (failoverTarget != null) {
-				setEndpoint(failoverTarget);
-				if (old != null) {
-					old.close();
-					conduits.remove(old);
+				recordFailover(invocation.getContext());
+				select(invocation.getContext(), failoverTarget);
+				if (!threadSafe) {
+					setEndpoint(retarget(failoverTarget.getTargetAddress()));
+					if (old != null) {
+						old.close();
+						conduits.remove(old);
+					}
 				}
-				failover = performFailover(exchange, invocation);
+				failover = performFailover(exchange, invocation, failoverTarget.getTargetAddress());
 			}
 		} else {
 			if (invocation != null) {
@@ -181,9 +484,7 @@ public class CircuitSwitcherTargetSelector extends FailoverTargetSelector {
 		}
 		if (!failover) {
 			LOG.debug("Failover not required");
-			synchronized (this) {
-				inProgress.remove(key);
-			}
+			inProgress.remove(key);
 			if (MessageUtils.isTrue(exchange.get("KeepConduitAlive"))) {
 				return;
 			}
@@ -202,12 +503,13 @@ public class CircuitSwitcherTargetSelector extends FailoverTargetSelector {
 		}
 	}
 
-	private boolean performFailover(Exchange exchange, InvocationContext invocation) {
+	private boolean performFailover(Exchange exchange, InvocationContext invocation,
+			String failoverAddress) {
 		Exception prevExchangeFault = (Exception) exchange.remove(Exception.class.getName());
 		Message outMessage = exchange.getOutMessage();
 		Exception prevMessageFault = outMessage.getContent(Exception.class);
 		outMessage.setContent(Exception.class, null);
-		overrideAddressProperty(invocation.getContext());
+		overrideAddressProperty(invocation.getContext(), failoverAddress);
 		Retryable retry = exchange.get(Retryable.class);
 		exchange.clear();
 		boolean failover = false;
@@ -222,6 +524,7 @@ public class CircuitSwitcherTargetSelector extends FailoverTargetSelector {
 				retry.invoke(invocation.getBindingOperationInfo(), invocation.getParams(), context,
 						exchange);
 			} catch (Exception e) {
+				releaseCall(invocation.getContext());
 				if (exchange.get(Exception.class) != null) {
 					exchange.put(Exception.class, prevExchangeFault);
 				}
@@ -233,53 +536,200 @@ public class CircuitSwitcherTargetSelector extends FailoverTargetSelector {
 		return failover;
 	}
 
+	private static boolean causedByIOException(Throwable exception) {
+		for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+			if (cause instanceof IOException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	@Override
 	protected long getDelayBetweenRetries() {
 		return 0;
 	}
 
 	protected InvocationContext getInvocation(InvocationKey key) {
-		InvocationContext invocation;
-		synchronized (this) {
-			invocation = inProgress.get(key);
+		return inProgress.get(key);
+	}
+
+	/**
+	 * Circuit the exchange was sent through. Taken from the invocation context
+	 * where selection cached it, looked up by the resolved address otherwise.
+	 */
+	private Circuit findCircuit(Map<String, Object> context) {
+		Circuit circuit = (Circuit) context.get(SELECTED_CIRCUIT);
+		if (circuit == null) {
+			CircuitGroup operation = (CircuitGroup) context.get(OPERATION_CIRCUITS);
+			CircuitIndex index = operation != null ? operation.index : circuits.index;
+			circuit = index.find(getAddressFrom(context));
+		}
+		return circuit;
+	}
+
+	/**
+	 * Makes the circuit the target of the invocation and tells a pending
+	 * hedge, if any, to avoid it. The call the strategy counted in flight on
+	 * the circuit when selecting it is the invocation's from now on, as is
+	 * the trial permit it took if the circuit is half open.
+	 */
+	private static void select(Map<String, Object> context, Circuit target) {
+		releaseCall(context);
+		context.put(SELECTED_CIRCUIT, target);
+		context.put(CALL_CIRCUIT, target);
+		context.put(TRIAL_PERIOD, target.getTrialPeriod());
+		HedgedCallback hedgedCallback = (HedgedCallback) context.get(HEDGED_CALLBACK);
+		if (hedgedCallback != null) {
+			hedgedCallback.primary = target;
+		}
+	}
+
+	/**
+	 * Counts a failover on the circuit the invocation is leaving.
+	 */
+	private void recordFailover(Map<String, Object> context) {
+		Circuit circuit = findCircuit(context);
+		if (circuit != null) {
+			circuit.getMetrics().recordFailover();
+		}
+	}
+
+	/**
+	 * Circuits the invocation chooses from: those of its operation in per
+	 * operation mode, the circuits of the addressList otherwise.
+	 */
+	private CircuitGroup getCircuitGroup(InvocationContext invocation) {
+		CircuitGroup operation = getOperationCircuits(invocation);
+		return operation != null ? operation : circuits;
+	}
+
+	/**
+	 * Looks up the circuits of the invocation's operation, creating them on
+	 * the operation's first invocation, and remembers them in the invocation
+	 * context.
+	 * 
+	 * @return null unless in per operation mode and the operation is known
+	 */
+	private CircuitGroup getOperationCircuits(InvocationContext invocation) {
+		if (!perOperationCircuits || invocation == null) {
+			return null;
+		}
+		Map<String, Object> context = invocation.getContext();
+		CircuitGroup result = (CircuitGroup) context.get(OPERATION_CIRCUITS);
+		if (result != null) {
+			return result;
+		}
+		BindingOperationInfo operation = invocation.getBindingOperationInfo();
+		if (operation == null) {
+			return null;
+		}
+		String name = operation.getName().toString();
+		result = operationCircuits.get(name);
+		if (result == null) {
+			List<Circuit> newCircuits = newOperationCircuits(name);
+			CircuitGroup created = new CircuitGroup(newCircuits, strategyFor(newCircuits));
+			result = operationCircuits.putIfAbsent(name, created);
+			if (result == null) {
+				result = created;
+			}
+		}
+		context.put(OPERATION_CIRCUITS, result);
+		return result;
+	}
+
+	private List<Circuit> newOperationCircuits(String operation) {
+		Map<Circuit, Integer> newCircuits = new LinkedHashMap<Circuit, Integer>();
+		for (Circuit addressCircuit : circuits.circuits) {
+			String address = addressCircuit.getTargetAddress();
+			Circuit circuit = circuitRegistry != null ? circuitRegistry.getCircuit(address, operation,
+					circuitConfig) : new Circuit(address, circuitConfig);
+			newCircuits.put(circuit, addressCircuit.getWeight());
 		}
-		return invocation;
+		configure(newCircuits);
+		return Collections.unmodifiableList(new ArrayList<Circuit>(newCircuits.keySet()));
 	}
 
-	private Circuit findCircuit(String address) {
-		Circuit foundCircuit = null;
-		for (Circuit circuit : circuits) {
-			if (address.contains(circuit.getTargetAddress())) {
-				foundCircuit = circuit;
-				break;
+	/**
+	 * Marks the start of an attempt on the circuit selected for the
+	 * invocation, which then counts as in flight until the attempt finishes.
+	 * A circuit picked by the selection strategy already counts the call,
+	 * one found by the address alone starts counting it here.
+	 */
+	private void startCall(Map<String, Object> context) {
+		Circuit circuit = findCircuit(context);
+		Circuit counted = (Circuit) context.get(CALL_CIRCUIT);
+		if (counted != circuit || context.containsKey(CALL_START)) {
+			releaseCall(context);
+			if (circuit != null) {
+				circuit.callStarted();
+				context.put(CALL_CIRCUIT, circuit);
+			}
+		}
+		if (circuit != null) {
+			context.put(CALL_START, circuitConfig.getClock().millis());
+		}
+	}
+
+	/**
+	 * Stops counting the invocation's call in flight, e.g. when it is dropped
+	 * before an attempt completes.
+	 */
+	private static void releaseCall(Map<String, Object> context) {
+		Circuit circuit = (Circuit) context.remove(CALL_CIRCUIT);
+		context.remove(CALL_START);
+		if (circuit != null) {
+			circuit.callFinished();
+		}
+	}
+
+	/**
+	 * Records the duration of the running attempt, if any, on its circuit.
+	 */
+	private void finishCall(Map<String, Object> context) {
+		Circuit circuit = (Circuit) context.remove(CALL_CIRCUIT);
+		Long callStart = (Long) context.remove(CALL_START);
+		if (circuit != null) {
+			circuit.callFinished();
+			if (callStart != null) {
+				circuit.handleCallDuration(circuitConfig.getClock().millis() - callStart, trialPeriod(context));
 			}
 		}
-		return foundCircuit;
 	}
 
 	protected void onSuccess(Map<String, Object> context) {
-		String address = getAddressFrom(context);
-		Circuit circuit = findCircuit(address);
+		if (retryBudget != null) {
+			retryBudget.deposit();
+		}
+		Circuit circuit = findCircuit(context);
 		if (circuit != null) {
-			circuit.handleSuccesfullConnection();
-			LOG.debug("onSuccess: address: {}, circuit: {}, context: {}", address, circuit, context);
+			circuit.handleSuccesfullConnection(trialPeriod(context));
+			LOG.debug("onSuccess: circuit: {}, context: {}", circuit, context);
 		} 
 
 	}
 	
 	protected void onFailure(Map<String, Object> context) {
-		String address = getAddressFrom(context);
-		Circuit circuit = findCircuit(address);
+		Circuit circuit = findCircuit(context);
 
 		
 		if (circuit != null) {
-			circuit.handleFailedConnection();
-			LOG.debug("onFailure: address: {}, circuit: {}, context: {}", address, circuit, context);
+			circuit.handleFailedConnection(trialPeriod(context));
+			LOG.debug("onFailure: circuit: {}, context: {}", circuit, context);
 		}
 
 	}
 
 
+	/**
+	 * Trial period of the circuit selected for the invocation, none for a
+	 * circuit found by the address alone.
+	 */
+	private static long trialPeriod(Map<String, Object> context) {
+		Long trialPeriod = (Long) context.get(TRIAL_PERIOD);
+		return trialPeriod != null ? trialPeriod : Circuit.NO_TRIAL;
+	}
+
 	private String getAddressFrom(Map<String, Object> context) {
 		Map<String, Object> requestContext = CastUtils.cast((Map<?, ?>) context
 				.get(Client.REQUEST_CONTEXT));
@@ -288,22 +738,440 @@ public class CircuitSwitcherTargetSelector extends FailoverTargetSelector {
 	}
 
 	final void setAddressList(List<String> addressList) {
-		circuits = new LinkedHashSet<Circuit>();
-		for (String address : addressList) {
-			circuits.add(new Circuit(address, this.failureThreshold, this.resetTimeout));
+		Map<Circuit, Integer> newCircuits = new LinkedHashMap<Circuit, Integer>();
+		for (String entry : addressList) {
+			int weightStart = entry.lastIndexOf(WEIGHT);
+			if (weightStart < 0) {
+				newCircuits.put(newCircuit(entry), 1);
+			} else {
+				newCircuits.put(newCircuit(entry.substring(0, weightStart)),
+						Integer.parseInt(entry.substring(weightStart + WEIGHT.length()).trim()));
+			}
+		}
+		configure(newCircuits);
+		List<Circuit> addressCircuits = Collections.unmodifiableList(new ArrayList<Circuit>(newCircuits.keySet()));
+		circuits = new CircuitGroup(addressCircuits, strategyFor(addressCircuits));
+		operationCircuits.clear();
+		LOG.info("Failover nodes: " + addressList.toString());
+	}
+
+	/**
+	 * Applies the weights and the ejection policy of this selector to a group
+	 * of peer circuits. Circuits from a registry may be used by other
+	 * selectors as well, so their settings must match those of the selector
+	 * that registered them first.
+	 */
+	private void configure(Map<Circuit, Integer> weights) {
+		EjectionPolicy ejectionPolicy = null;
+		if (maxEjectionPercent < 100 || outlierDeviation > 0) {
+			ejectionPolicy = new EjectionPolicy(new ArrayList<Circuit>(weights.keySet()), maxEjectionPercent,
+					outlierDeviation);
+		}
+		for (Map.Entry<Circuit, Integer> weight : weights.entrySet()) {
+			Circuit circuit = weight.getKey();
+			if (circuitRegistry != null) {
+				circuit.share(weight.getValue(), ejectionPolicy);
+			} else {
+				circuit.setWeight(weight.getValue());
+				circuit.setEjectionPolicy(ejectionPolicy);
+			}
+		}
+	}
+
+	/**
+	 * @return the configured strategy, or an instance of it of the group's
+	 *         own if the strategy keeps state about the circuits
+	 */
+	private CircuitSelectionStrategy strategyFor(List<Circuit> group) {
+		if (selectionStrategy instanceof StatefulSelectionStrategy) {
+			return ((StatefulSelectionStrategy) selectionStrategy).forCircuits(group);
 		}
+		return selectionStrategy;
+	}
+
+	private Circuit newCircuit(String address) {
+		if (circuitRegistry != null) {
+			return circuitRegistry.getCircuit(address, circuitConfig);
+		}
+		return new Circuit(address, circuitConfig);
+	}
+
+	/**
+	 * @return circuits of the addressList nodes, e.g. to read their
+	 *         {@link Circuit#getMetrics() metrics}. With perOperationCircuits
+	 *         they only carry the calls of unknown operations, see
+	 *         {@link #getCircuitsByOperation()}.
+	 */
+	public List<Circuit> getCircuits() {
+		return circuits.circuits;
+	}
+
+	/**
+	 * @return circuits of every operation invoked so far with
+	 *         perOperationCircuits, by qualified operation name, e.g. to read
+	 *         their {@link Circuit#getMetrics() metrics}
+	 */
+	public Map<String, List<Circuit>> getCircuitsByOperation() {
+		Map<String, List<Circuit>> result = new TreeMap<String, List<Circuit>>();
+		for (Map.Entry<String, CircuitGroup> operation : operationCircuits.entrySet()) {
+			result.put(operation.getKey(), operation.getValue().circuits);
+		}
+		return Collections.unmodifiableMap(result);
 	}
 
 	void setResetTimeout(long resetTimeout) {
-		this.resetTimeout = resetTimeout;
+		circuitConfig.setResetTimeout(resetTimeout);
 	}
 
 	void setFailureThreshold(int failureThreshold) {
-		this.failureThreshold = failureThreshold;
+		circuitConfig.setFailureThreshold(failureThreshold);
+	}
+
+	void setClock(Clock clock) {
+		circuitConfig.setClock(clock);
+	}
+
+	void setCircuitConfig(CircuitConfig circuitConfig) {
+		this.circuitConfig = new CircuitConfig(circuitConfig);
 	}
 
 	void setReceiveTimeout(Long receiveTimeout) {
 		this.receiveTimeout = receiveTimeout;
 	}
 
+	void setCircuitRegistry(CircuitRegistry circuitRegistry) {
+		this.circuitRegistry = circuitRegistry;
+	}
+
+	void setSelectionStrategy(CircuitSelectionStrategy selectionStrategy) {
+		this.selectionStrategy = selectionStrategy;
+		circuits = new CircuitGroup(circuits.circuits, strategyFor(circuits.circuits));
+		operationCircuits.clear();
+	}
+
+	void setThreadSafe(boolean threadSafe) {
+		this.threadSafe = threadSafe;
+	}
+
+	void setHedgeDelay(long hedgeDelay) {
+		this.hedgeDelay = hedgeDelay;
+	}
+
+	void setHedgedOperations(List<String> hedgedOperations) {
+		this.hedgedOperations = new ArrayList<String>(hedgedOperations);
+	}
+
+	void setHealthCheck(HealthCheck healthCheck) {
+		this.healthCheck = healthCheck;
+	}
+
+	void setHealthCheckInterval(long healthCheckInterval) {
+		this.healthCheckInterval = healthCheckInterval;
+	}
+
+	void setMaxEjectionPercent(int maxEjectionPercent) {
+		this.maxEjectionPercent = maxEjectionPercent;
+	}
+
+	void setOutlierDeviation(int outlierDeviation) {
+		this.outlierDeviation = outlierDeviation;
+	}
+
+	void setRetryBudget(RetryBudget retryBudget) {
+		this.retryBudget = retryBudget;
+	}
+
+	void setPerOperationCircuits(boolean perOperationCircuits) {
+		this.perOperationCircuits = perOperationCircuits;
+	}
+
+	void setScheduler(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	void setHealthCheckScheduler(ScheduledExecutorService healthCheckScheduler) {
+		this.healthCheckScheduler = healthCheckScheduler;
+	}
+
+	private ScheduledExecutorService getScheduler() {
+		return scheduler != null ? scheduler : CircuitSwitcherScheduler.shared();
+	}
+
+	private ScheduledExecutorService getHealthCheckScheduler() {
+		return healthCheckScheduler != null ? healthCheckScheduler : CircuitSwitcherScheduler.healthChecks();
+	}
+
+	/**
+	 * Starts probing open circuits in the background, unless health checks
+	 * are disabled. The task holds the selector weakly and stops with it.
+	 */
+	synchronized void startHealthChecks() {
+		if (healthCheck == null || healthCheckInterval <= 0 || healthChecks != null) {
+			return;
+		}
+		HealthCheckTask task = new HealthCheckTask(this);
+		healthChecks = getHealthCheckScheduler().scheduleWithFixedDelay(task, healthCheckInterval,
+				healthCheckInterval, TimeUnit.MILLISECONDS);
+		task.future = healthChecks;
+	}
+
+	/**
+	 * Closes every open circuit whose target passes the health check. Each
+	 * address is probed by a task of its own on the given executor, so one
+	 * node that does not answer holds up none of the others, and the circuits
+	 * per operation of an address share its probe.
+	 */
+	void checkHealth(Executor executor) {
+		Map<String, List<Circuit>> openCircuits = new LinkedHashMap<String, List<Circuit>>();
+		addOpenCircuits(circuits.circuits, openCircuits);
+		for (CircuitGroup operation : operationCircuits.values()) {
+			addOpenCircuits(operation.circuits, openCircuits);
+		}
+		for (Map.Entry<String, List<Circuit>> entry : openCircuits.entrySet()) {
+			final String address = entry.getKey();
+			final List<Circuit> candidates = entry.getValue();
+			if (!probedAddresses.add(address)) {
+				continue;
+			}
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							checkHealth(address, candidates);
+						} finally {
+							probedAddresses.remove(address);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				probedAddresses.remove(address);
+				LOG.debug("Health check of {} rejected", address);
+			}
+		}
+	}
+
+	private static void addOpenCircuits(List<Circuit> candidates, Map<String, List<Circuit>> openCircuits) {
+		for (Circuit circuit : candidates) {
+			if (circuit.isOpen()) {
+				List<Circuit> sameAddress = openCircuits.get(circuit.getTargetAddress());
+				if (sameAddress == null) {
+					sameAddress = new ArrayList<Circuit>();
+					openCircuits.put(circuit.getTargetAddress(), sameAddress);
+				}
+				sameAddress.add(circuit);
+			}
+		}
+	}
+
+	private void checkHealth(String address, List<Circuit> candidates) {
+		boolean healthy;
+		try {
+			healthy = healthCheck.isHealthy(address);
+		} catch (RuntimeException e) {
+			LOG.debug("Health check failed, address: " + address, e);
+			healthy = false;
+		}
+		if (healthy) {
+			for (Circuit circuit : candidates) {
+				if (circuit.healthCheckPassed()) {
+					LOG.info("Health check passed, {}", circuit);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		super.close();
+		circuitConduits.clear();
+		synchronized (this) {
+			if (healthChecks != null) {
+				healthChecks.cancel(false);
+				healthChecks = null;
+			}
+		}
+	}
+
+	/**
+	 * Immutable circuits of the addressList or of one operation, one per
+	 * addressList entry, with the strategy selecting from them.
+	 */
+	private static final class CircuitGroup {
+
+		private final List<Circuit> circuits;
+		private final CircuitIndex index;
+		private final CircuitSelectionStrategy strategy;
+
+		CircuitGroup(List<Circuit> circuits, CircuitSelectionStrategy strategy) {
+			this.circuits = circuits;
+			this.index = new CircuitIndex(circuits);
+			this.strategy = strategy;
+		}
+	}
+
+	private static final class HealthCheckTask implements Runnable {
+
+		private final WeakReference<CircuitSwitcherTargetSelector> selector;
+		private volatile ScheduledFuture<?> future;
+
+		HealthCheckTask(CircuitSwitcherTargetSelector selector) {
+			this.selector = new WeakReference<CircuitSwitcherTargetSelector>(selector);
+		}
+
+		public void run() {
+			CircuitSwitcherTargetSelector target = selector.get();
+			if (target != null) {
+				target.checkHealth(target.getHealthCheckScheduler());
+			} else if (future != null) {
+				future.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Callback shared by the attempts of a hedged invocation. The first
+	 * response is passed to the caller and the others are discarded, an
+	 * exception only once no other attempt is still running.
+	 */
+	private static class HedgedCallback extends ClientCallback {
+
+		private final ClientCallback delegate;
+		private final AtomicBoolean completed = new AtomicBoolean(false);
+		private final AtomicInteger runningAttempts = new AtomicInteger(1);
+
+		/**
+		 * Circuit of the first attempt, which the hedge must not use.
+		 */
+		volatile Circuit primary;
+
+		HedgedCallback(ClientCallback delegate) {
+			this.delegate = delegate;
+		}
+
+		void attemptStarted() {
+			runningAttempts.incrementAndGet();
+		}
+
+		@Override
+		public void start(Message msg) {
+			delegate.start(msg);
+		}
+
+		@Override
+		public void handleResponse(Map<String, Object> ctx, Object[] res) {
+			runningAttempts.decrementAndGet();
+			if (completed.compareAndSet(false, true)) {
+				delegate.handleResponse(ctx, res);
+			}
+		}
+
+		@Override
+		public void handleException(Map<String, Object> ctx, Throwable ex) {
+			if (runningAttempts.decrementAndGet() == 0 && completed.compareAndSet(false, true)) {
+				delegate.handleException(ctx, ex);
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return delegate.cancel(mayInterruptIfRunning);
+		}
+
+		/**
+		 * Once an attempt has completed the invocation, the others are
+		 * reported as cancelled, so CXF discards their responses.
+		 */
+		@Override
+		public boolean isCancelled() {
+			return completed.get() || delegate.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return completed.get() || delegate.isDone();
+		}
+	}
+
+	/**
+	 * Stands in for the callback of an asynchronous invocation. Connection
+	 * failures reach it instead of the caller, it then fails over by invoking
+	 * the client again from the scheduler, passing the caller's callback, so
+	 * the caller is only notified of the outcome of the last attempt.
+	 */
+	private class FailoverCallback extends ClientCallback {
+
+		private final ClientCallback delegate;
+		private final Client client;
+		private final InvocationKey key;
+		private final InvocationContext invocation;
+
+		FailoverCallback(ClientCallback delegate, Client client, InvocationKey key, InvocationContext invocation) {
+			this.delegate = delegate;
+			this.client = client;
+			this.key = key;
+			this.invocation = invocation;
+		}
+
+		@Override
+		public void start(Message msg) {
+			delegate.start(msg);
+		}
+
+		@Override
+		public void handleResponse(Map<String, Object> ctx, Object[] res) {
+			delegate.handleResponse(ctx, res);
+		}
+
+		@Override
+		public void handleException(final Map<String, Object> ctx, Throwable ex) {
+			inProgress.remove(key);
+			// complete() is not called when the request could not be sent
+			finishCall(invocation.getContext());
+			if (!causedByIOException(ex) || delegate.isCancelled()) {
+				delegate.handleException(ctx, ex);
+				return;
+			}
+			final Map<String, Object> context = invocation.getContext();
+			onFailure(context);
+			Circuit failoverTarget = getFailoverTarget(invocation);
+			if (failoverTarget == null) {
+				delegate.handleException(ctx, ex);
+				return;
+			}
+			String address = failoverTarget.getTargetAddress();
+			recordFailover(context);
+			select(context, failoverTarget);
+			if (!threadSafe) {
+				setEndpoint(retarget(address));
+			}
+			overrideAddressProperty(context, address);
+			getScheduler().schedule(new Runnable() {
+				public void run() {
+					try {
+						client.invoke(delegate, invocation.getBindingOperationInfo(), invocation.getParams(),
+								context, null);
+					} catch (Exception e) {
+						releaseCall(context);
+						delegate.handleException(ctx, e);
+					}
+				}
+			}, getDelayBetweenRetries(), TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return delegate.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return delegate.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return delegate.isDone();
+		}
+	}
+
 }
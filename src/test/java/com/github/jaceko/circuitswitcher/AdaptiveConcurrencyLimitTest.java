@@ -0,0 +1,58 @@
+package com.github.jaceko.circuitswitcher;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimitTest {
+
+	private AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 20, 2);
+
+	@Test
+	public void shouldGrowAdditivelyWhileLimitIsInUse() {
+		for (int i = 0; i < 11; i++) {
+			limit.onSample(100, 10);
+		}
+
+		assertThat(limit.get(), is(11));
+	}
+
+	@Test
+	public void shouldNotGrowWhileLimitIsHardlyUsed() {
+		for (int i = 0; i < 100; i++) {
+			limit.onSample(100, 2);
+		}
+
+		assertThat(limit.get(), is(10));
+	}
+
+	@Test
+	public void shouldNotGrowBeyondMaxLimit() {
+		for (int i = 0; i < 1000; i++) {
+			limit.onSample(100, 20);
+		}
+
+		assertThat(limit.get(), is(20));
+	}
+
+	@Test
+	public void shouldBackOffWhenLatencyRises() {
+		limit.onSample(100, 10);
+		limit.onSample(250, 10);
+
+		assertThat(limit.get(), is(9));
+	}
+
+	@Test
+	public void shouldBackOffOnDropsDownToOne() {
+		limit.onDrop();
+		assertThat(limit.get(), is(9));
+
+		for (int i = 0; i < 100; i++) {
+			limit.onDrop();
+		}
+		assertThat(limit.get(), is(1));
+	}
+
+}
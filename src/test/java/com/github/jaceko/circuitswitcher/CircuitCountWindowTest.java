@@ -0,0 +1,85 @@
+package com.github.jaceko.circuitswitcher;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class CircuitCountWindowTest {
+
+	private Circuit circuit = new Circuit("http://someUrl", countWindowConfig(10, 40, 5));
+
+	@Test
+	public void shouldTripWhenFailureRateReachesThreshold() {
+		for (int i = 0; i < 6; i++) {
+			circuit.handleSuccesfullConnection();
+		}
+		for (int i = 0; i < 3; i++) {
+			circuit.handleFailedConnection();
+		}
+		assertThat(circuit.connectionAvailable(), is(true));
+		circuit.handleFailedConnection();
+		assertThat(circuit.connectionAvailable(), is(false));
+	}
+
+	@Test
+	public void shouldNotTripBeforeMinimumNumberOfCalls() {
+		for (int i = 0; i < 4; i++) {
+			circuit.handleFailedConnection();
+		}
+		assertThat(circuit.connectionAvailable(), is(true));
+		circuit.handleFailedConnection();
+		assertThat(circuit.connectionAvailable(), is(false));
+	}
+
+	@Test
+	public void shouldTripOnInterleavedFailures() {
+		for (int i = 0; i < 5; i++) {
+			circuit.handleSuccesfullConnection();
+			circuit.handleFailedConnection();
+		}
+		assertThat(circuit.connectionAvailable(), is(false));
+	}
+
+	@Test
+	public void shouldForgetOutcomesOutsideTheWindow() {
+		for (int i = 0; i < 3; i++) {
+			circuit.handleFailedConnection();
+		}
+		for (int i = 0; i < 10; i++) {
+			circuit.handleSuccesfullConnection();
+		}
+		assertThat(circuit.toString(), containsString("state=CircuitCountWindow [calls=10, failures=0]"));
+		for (int i = 0; i < 3; i++) {
+			circuit.handleFailedConnection();
+		}
+		assertThat(circuit.connectionAvailable(), is(true));
+	}
+
+	@Test
+	public void shouldStartWithEmptyWindowAfterReset() {
+		ManualClock clock = new ManualClock();
+		CircuitConfig config = countWindowConfig(10, 40, 5);
+		config.setResetTimeout(50);
+		config.setClock(clock);
+		circuit = new Circuit("http://someUrl", config);
+		for (int i = 0; i < 5; i++) {
+			circuit.handleFailedConnection();
+		}
+		clock.advance(70);
+		assertThat(circuit.connectionAvailable(), is(true));
+		circuit.handleSuccesfullConnection();
+		assertThat(circuit.toString(), containsString("state=CircuitCountWindow [calls=0, failures=0]"));
+	}
+
+	private static CircuitConfig countWindowConfig(int windowSize, int failureRateThreshold, int minimumNumberOfCalls) {
+		CircuitConfig config = new CircuitConfig(0, 10000);
+		config.setFailurePolicy(FailurePolicy.COUNT_WINDOW);
+		config.setSlidingWindowSize(windowSize);
+		config.setFailureRateThreshold(failureRateThreshold);
+		config.setMinimumNumberOfCalls(minimumNumberOfCalls);
+		return config;
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.github.jaceko.circuitswitcher;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class CircuitIndexTest {
+
+	private Circuit svc = new Circuit("http://a/svc", 3, 200);
+	private Circuit svc2 = new Circuit("http://a/svc2", 3, 200);
+	private Circuit root = new Circuit("http://b", 3, 200);
+
+	private CircuitIndex index = new CircuitIndex(asList(svc, svc2, root));
+
+	@Test
+	public void shouldFindCircuitByItsAddress() {
+		assertThat(index.find("http://a/svc"), is(sameInstance(svc)));
+		assertThat(index.find("http://a/svc2"), is(sameInstance(svc2)));
+		assertThat(index.find("http://b"), is(sameInstance(root)));
+	}
+
+	@Test
+	public void shouldFindCircuitByAddressWithResourcePath() {
+		assertThat(index.find("http://a/svc/books/1"), is(sameInstance(svc)));
+		assertThat(index.find("http://a/svc2/books"), is(sameInstance(svc2)));
+		assertThat(index.find("http://b/authors"), is(sameInstance(root)));
+	}
+
+	@Test
+	public void shouldNotMatchAddressSharingOnlyPrefix() {
+		CircuitIndex svcOnly = new CircuitIndex(asList(svc));
+
+		assertThat(svcOnly.find("http://a/svc2"), is(nullValue()));
+		assertThat(svcOnly.find("http://a/svcx/books"), is(nullValue()));
+	}
+
+	@Test
+	public void shouldNotFindUnknownAddress() {
+		assertThat(index.find("http://c/svc"), is(nullValue()));
+		assertThat(index.find(null), is(nullValue()));
+	}
+
+	@Test
+	public void shouldFindCircuitByEquivalentAddress() {
+		assertThat(index.find("HTTP://A:80/svc/"), is(sameInstance(svc)));
+		assertThat(index.find("http://a/svc?wsdl"), is(sameInstance(svc)));
+	}
+
+	@Test
+	public void shouldNormalizeAddress() {
+		assertThat(CircuitIndex.normalize("HTTP://Server:80/Path/"), is("http://server/Path"));
+		assertThat(CircuitIndex.normalize("https://server:443/path?a=b#c"), is("https://server/path"));
+		assertThat(CircuitIndex.normalize("http://server:8080"), is("http://server:8080"));
+	}
+
+}
@@ -0,0 +1,108 @@
+package com.github.jaceko.circuitswitcher;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class CircuitMetricsTest {
+
+	private ManualClock clock = new ManualClock();
+
+	@Test
+	public void shouldCountOutcomesAndTransitions() {
+		CircuitConfig config = new CircuitConfig(2, 1000);
+		config.setClock(clock);
+		Circuit circuit = new Circuit("http://address1", config);
+
+		circuit.handleSuccesfullConnection();
+		circuit.handleFailedConnection();
+		circuit.handleFailedConnection();
+		circuit.connectionAvailable();
+		clock.advance(1001);
+		circuit.connectionAvailable();
+		circuit.handleSuccesfullConnection();
+		circuit.getMetrics().recordFailover();
+
+		CircuitMetrics.Snapshot snapshot = circuit.getMetrics().snapshot();
+		assertThat(snapshot.getCalls(), is(4L));
+		assertThat(snapshot.getSuccesses(), is(2L));
+		assertThat(snapshot.getFailures(), is(2L));
+		assertThat(snapshot.getRejections(), is(1L));
+		assertThat(snapshot.getFailovers(), is(1L));
+		assertThat(snapshot.getOpened(), is(1L));
+		assertThat(snapshot.getHalfOpened(), is(1L));
+		assertThat(snapshot.getClosed(), is(1L));
+	}
+
+	@Test
+	public void shouldReportLatencyPercentilesWithinPrecision() {
+		CircuitMetrics metrics = new CircuitMetrics();
+		for (int i = 1; i <= 1000; i++) {
+			metrics.recordLatency(i);
+		}
+
+		CircuitMetrics.Snapshot snapshot = metrics.snapshot();
+		assertThat(snapshot.getMeanLatency(), is(closeTo(500.5, 0.001)));
+		assertThat(snapshot.getMaxLatency(), is(1000L));
+		assertPercentile(snapshot, 50, 500);
+		assertPercentile(snapshot, 99, 990);
+		assertThat(snapshot.getLatencyPercentile(100), is(1000L));
+	}
+
+	@Test
+	public void shouldKeepSmallLatenciesExact() {
+		CircuitMetrics metrics = new CircuitMetrics();
+		for (int i = 0; i < 16; i++) {
+			metrics.recordLatency(i);
+		}
+
+		assertThat(metrics.snapshot().getLatencyPercentile(50), is(7L));
+	}
+
+	@Test
+	public void shouldMapEveryValueIntoBucketCoveringIt() {
+		for (long value = 0; value < 100000; value++) {
+			int index = LatencyHistogram.index(value);
+			assertThat(LatencyHistogram.highestValue(index), is(greaterThanOrEqualTo(value)));
+			assertThat(index == 0 || LatencyHistogram.highestValue(index - 1) < value, is(true));
+		}
+		assertThat(LatencyHistogram.index(LatencyHistogram.MAX_VALUE), is(LatencyHistogram.BUCKETS - 1));
+	}
+
+	@Test
+	public void shouldNotLoseCountsOfConcurrentWriters() throws InterruptedException {
+		final CircuitMetrics metrics = new CircuitMetrics();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		for (int i = 0; i < 4; i++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						metrics.recordSuccess();
+						metrics.recordLatency(j % 100);
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+
+		CircuitMetrics.Snapshot snapshot = metrics.snapshot();
+		assertThat(snapshot.getSuccesses(), is(40000L));
+		assertThat(snapshot.getLatencyPercentile(100), is(99L));
+	}
+
+	private static void assertPercentile(CircuitMetrics.Snapshot snapshot, double percentile, long expected) {
+		long value = snapshot.getLatencyPercentile(percentile);
+		assertThat(value, is(greaterThanOrEqualTo(expected)));
+		assertThat(value, is(lessThanOrEqualTo(expected + expected / 16)));
+	}
+
+}
@@ -0,0 +1,71 @@
+package com.github.jaceko.circuitswitcher;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class CircuitRegistryTest {
+
+	private CircuitRegistry registry = new CircuitRegistry();
+
+	@Test
+	public void shouldReturnSameCircuitForSameAddress() {
+		Circuit circuit = registry.getCircuit("http://address1", 3, 200);
+
+		assertThat(registry.getCircuit("http://address1", 3, 200), is(sameInstance(circuit)));
+		assertThat(registry.size(), is(1));
+	}
+
+	@Test
+	public void shouldReturnDifferentCircuitsForDifferentAddresses() {
+		Circuit circuit = registry.getCircuit("http://address1", 3, 200);
+
+		assertThat(registry.getCircuit("http://address2", 3, 200), is(not(sameInstance(circuit))));
+		assertThat(registry.size(), is(2));
+	}
+
+	@Test
+	public void shouldKeepCircuitsOfOperationsApart() {
+		CircuitConfig config = new CircuitConfig(3, 200);
+		Circuit circuit = registry.getCircuit("http://address1", "{ns}expensive", config);
+
+		assertThat(registry.getCircuit("http://address1/", "{ns}expensive", config), is(sameInstance(circuit)));
+		assertThat(registry.getCircuit("http://address1", "{ns}cheap", config), is(not(sameInstance(circuit))));
+		assertThat(registry.getCircuit("http://address1", config), is(not(sameInstance(circuit))));
+		assertThat(registry.size(), is(3));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void shouldRejectConflictingSettings() {
+		registry.getCircuit("http://address1", 3, 200);
+
+		registry.getCircuit("http://address1", 5, 1000);
+	}
+
+	@Test
+	public void shouldReturnSameCircuitForEqualSettings() {
+		CircuitConfig config = new CircuitConfig(3, 200);
+		config.setHalfOpenPermits(2);
+		Circuit circuit = registry.getCircuit("http://address1", config);
+
+		assertThat(registry.getCircuit("http://address1", new CircuitConfig(config)), is(sameInstance(circuit)));
+	}
+
+	@Test
+	public void shouldNotShareCircuitsBetweenRegistries() {
+		Circuit circuit = registry.getCircuit("http://address1", 3, 200);
+
+		assertThat(new CircuitRegistry().getCircuit("http://address1", 3, 200), is(not(sameInstance(circuit))));
+	}
+
+	@Test
+	public void shouldShareTrippedCircuit() {
+		registry.getCircuit("http://address1", 1, 200).handleFailedConnection();
+
+		assertThat(registry.getCircuit("http://address1", 1, 200).connectionAvailable(), is(false));
+	}
+
+}
@@ -3,7 +3,22 @@ package com.github.jaceko.circuitswitcher;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
 
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
 import org.junit.Test;
 
 import com.github.jaceko.circuitswitcher.Circuit;
@@ -11,6 +26,13 @@ import com.github.jaceko.circuitswitcher.Circuit;
 public class CircuitTest {
 
 	private Circuit circuit;
+	private ManualClock clock = new ManualClock();
+
+	private CircuitConfig config(int failureThreshold, long resetTimeout) {
+		CircuitConfig config = new CircuitConfig(failureThreshold, resetTimeout);
+		config.setClock(clock);
+		return config;
+	}
 
 	@Test
 	public void shouldBeAvailableByDefault() {
@@ -46,28 +68,340 @@ public class CircuitTest {
 	}
 
 	@Test
-	public void shouldBeAvailableAfterResetTimeout() throws InterruptedException {
+	public void shouldKeepFailuresWhenStaleResetLosesTransition() {
+		circuit = new Circuit(null, 3, 200);
+		circuit.handleFailedConnection();
+		circuit.handleFailedConnection();
+
+		assertThat(circuit.resetBreaker(new CircuitHalfOpen()), is(false));
+
+		circuit.handleFailedConnection();
+		assertThat(circuit.connectionAvailable(), is(false));
+	}
+
+	@Test
+	public void shouldCountRejectionOnceWhenResetTimeoutHasPassed() {
+		CircuitConfig config = config(0, 50);
+		config.setHalfOpenPermits(0);
+		circuit = new Circuit(null, config);
+		circuit.handleFailedConnection();
+		clock.advance(70);
+
+		assertThat(circuit.connectionAvailable(), is(false));
+		assertThat(circuit.getMetrics().snapshot().getRejections(), is(1L));
+	}
+
+	@Test
+	public void shouldBeAvailableAfterResetTimeout() {
 		long resetTimeout = 50;
 
-		circuit = new Circuit(null, 0, resetTimeout);
+		circuit = new Circuit(null, config(0, resetTimeout));
 		circuit.handleFailedConnection();
 		assertThat(circuit.connectionAvailable(), is(false));
-		Thread.sleep(70);
+		clock.advance(70);
 		assertThat(circuit.connectionAvailable(), is(true));
 	}
 
 	@Test
-	public void shouldGoIntoFailedStateAfterGiongBackToNormal() throws InterruptedException {
+	public void shouldGoIntoFailedStateAfterGiongBackToNormal() {
 		long resetTimeout = 50;
 
-		circuit = new Circuit(null, 0, resetTimeout);
+		circuit = new Circuit(null, config(0, resetTimeout));
+		circuit.handleFailedConnection();
+		assertThat(circuit.connectionAvailable(), is(false));
+		clock.advance(70);
+		assertThat(circuit.connectionAvailable(), is(true));
+		circuit.handleFailedConnection();
+		assertThat(circuit.connectionAvailable(), is(false));
+
+	}
+
+	@Test
+	public void shouldLetSingleTrialCallThroughWhenHalfOpen() {
+		circuit = new Circuit(null, config(0, 50));
+		circuit.handleFailedConnection();
+		clock.advance(70);
+		assertThat(circuit.connectionAvailable(), is(true));
+		assertThat(circuit.connectionAvailable(), is(false));
+		circuit.handleSuccesfullConnection();
+		assertThat(circuit.connectionAvailable(), is(true));
+		assertThat(circuit.connectionAvailable(), is(true));
+	}
+
+	@Test
+	public void shouldCloseAfterConfiguredTrialSuccesses() {
+		CircuitConfig config = config(0, 50);
+		config.setHalfOpenPermits(2);
+		config.setHalfOpenSuccessThreshold(3);
+		circuit = new Circuit(null, config);
+		circuit.handleFailedConnection();
+		clock.advance(70);
+		assertThat(circuit.connectionAvailable(), is(true));
+		assertThat(circuit.connectionAvailable(), is(true));
+		assertThat(circuit.connectionAvailable(), is(false));
+		circuit.handleSuccesfullConnection();
+		circuit.handleSuccesfullConnection();
+		assertThat(circuit.toString(), containsString("state=CircuitHalfOpen"));
+		assertThat(circuit.connectionAvailable(), is(true));
+		circuit.handleSuccesfullConnection();
+		assertThat(circuit.toString(), containsString("state=CircuitClosed"));
+	}
+
+	@Test
+	public void shouldNotCountSuccessOfCallSentBeforeHalfOpen() {
+		circuit = new Circuit(null, config(0, 50));
+		long sentWhileClosed = circuit.getTrialPeriod();
 		circuit.handleFailedConnection();
+		clock.advance(70);
+		assertThat(circuit.connectionAvailable(), is(true));
+		long trial = circuit.getTrialPeriod();
+
+		circuit.handleSuccesfullConnection(sentWhileClosed);
+		assertThat(circuit.toString(), containsString("state=CircuitHalfOpen"));
 		assertThat(circuit.connectionAvailable(), is(false));
-		Thread.sleep(70);
+
+		circuit.handleSuccesfullConnection(trial);
+		assertThat(circuit.toString(), containsString("state=CircuitClosed"));
+	}
+
+	@Test
+	public void shouldNotReturnMoreTrialPermitsThanConfigured() {
+		CircuitConfig config = config(0, 50);
+		config.setHalfOpenSuccessThreshold(3);
+		circuit = new Circuit(null, config);
+		circuit.handleFailedConnection();
+		clock.advance(70);
+		assertThat(circuit.connectionAvailable(), is(true));
+		clock.advance(70);
 		assertThat(circuit.connectionAvailable(), is(true));
+		long trial = circuit.getTrialPeriod();
+
+		circuit.handleSuccesfullConnection(trial);
+		circuit.handleSuccesfullConnection(trial);
+		assertThat(circuit.connectionAvailable(), is(true));
+		assertThat(circuit.connectionAvailable(), is(false));
+	}
+
+	@Test
+	public void shouldReleaseLostTrialPermitAfterResetTimeout() {
+		circuit = new Circuit(null, config(0, 50));
 		circuit.handleFailedConnection();
+		clock.advance(70);
+		assertThat(circuit.connectionAvailable(), is(true));
+		assertThat(circuit.connectionAvailable(), is(false));
+		clock.advance(70);
+		assertThat(circuit.connectionAvailable(), is(true));
 		assertThat(circuit.connectionAvailable(), is(false));
+	}
 
+	@Test
+	public void shouldTripWhenSlowCallRateReachesThreshold() {
+		circuit = new Circuit(null, slowCallConfig());
+		for (int i = 0; i < 3; i++) {
+			circuit.handleCallDuration(10);
+			circuit.handleSuccesfullConnection();
+		}
+		circuit.handleCallDuration(150);
+		circuit.handleSuccesfullConnection();
+		assertThat(circuit.connectionAvailable(), is(true));
+		circuit.handleCallDuration(101);
+		circuit.handleSuccesfullConnection();
+		assertThat(circuit.connectionAvailable(), is(false));
+	}
+
+	@Test
+	public void shouldTrackSlowCallsSeparatelyFromFailures() {
+		circuit = new Circuit(null, slowCallConfig());
+		for (int i = 0; i < 2; i++) {
+			circuit.handleCallDuration(500);
+			circuit.handleFailedConnection();
+		}
+		for (int i = 0; i < 3; i++) {
+			circuit.handleCallDuration(10);
+			circuit.handleSuccesfullConnection();
+		}
+		assertThat(circuit.connectionAvailable(), is(true));
+	}
+
+	@Test
+	public void shouldReopenAfterSlowTrialCall() {
+		CircuitConfig config = slowCallConfig();
+		config.setFailureThreshold(0);
+		config.setResetTimeout(50);
+		config.setClock(clock);
+		circuit = new Circuit(null, config);
+		circuit.handleFailedConnection();
+		clock.advance(70);
+		assertThat(circuit.connectionAvailable(), is(true));
+		circuit.handleCallDuration(500);
+		circuit.handleSuccesfullConnection();
+		assertThat(circuit.toString(), containsString("state=CircuitOpen"));
+	}
+
+	private static CircuitConfig slowCallConfig() {
+		CircuitConfig config = new CircuitConfig(3, 10000);
+		config.setSlowCallDurationThreshold(100);
+		config.setSlowCallRateThreshold(40);
+		config.setMinimumNumberOfCalls(5);
+		return config;
+	}
+
+	@Test
+	public void shouldStayOpenLongerAfterEachFailedProbe() {
+		CircuitConfig config = config(0, 100);
+		config.setBackoffMultiplier(2);
+		config.setMaxResetTimeout(300);
+		circuit = new Circuit(null, config);
+		circuit.handleFailedConnection();
+		assertOpenFor(100);
+		circuit.handleFailedConnection();
+		assertOpenFor(200);
+		circuit.handleFailedConnection();
+		assertOpenFor(300);
+		circuit.handleFailedConnection();
+		assertOpenFor(300);
+		circuit.handleSuccesfullConnection();
+		circuit.handleFailedConnection();
+		assertOpenFor(100);
+	}
+
+	@Test
+	public void shouldKeepProbingAfterManyFailedProbes() {
+		CircuitConfig config = config(0, 100);
+		config.setBackoffMultiplier(2);
+		circuit = new Circuit(null, config);
+		circuit.handleFailedConnection();
+		for (int i = 0; i < 2000; i++) {
+			clock.advance(60001);
+			assertThat(circuit.connectionAvailable(), is(true));
+			circuit.handleFailedConnection();
+		}
+		assertOpenFor(60000);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectUnboundedMaxResetTimeout() {
+		config(0, 100).setMaxResetTimeout(0);
+	}
+
+	@Test
+	public void shouldShortenOpenTimeByJitter() {
+		CircuitConfig config = config(0, 1000);
+		config.setResetTimeoutJitter(0.5);
+		for (int i = 0; i < 20; i++) {
+			circuit = new Circuit(null, config);
+			circuit.handleFailedConnection();
+			clock.advance(500);
+			assertThat(circuit.connectionAvailable(), is(false));
+			clock.advance(501);
+			assertThat(circuit.connectionAvailable(), is(true));
+		}
+	}
+
+	@Test
+	public void shouldRejectCallsOnceMaxConcurrentCallsAreInFlight() {
+		CircuitConfig config = config(1, 1000);
+		config.setMaxConcurrentCalls(2);
+		circuit = new Circuit(null, config);
+
+		assertThat(circuit.connectionAvailable(), is(true));
+		assertThat(circuit.connectionAvailable(), is(true));
+		assertThat(circuit.connectionAvailable(), is(false));
+		assertThat(circuit.getInFlight(), is(2));
+
+		circuit.callFinished();
+		assertThat(circuit.connectionAvailable(), is(true));
+	}
+
+	@Test
+	public void shouldNotExceedMaxConcurrentCallsWhenSelectedConcurrently() throws Exception {
+		CircuitConfig config = config(1, 1000);
+		config.setMaxConcurrentCalls(5);
+		circuit = new Circuit(null, config);
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger accepted = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int j = 0; j < 1000; j++) {
+						if (circuit.connectionAvailable()) {
+							accepted.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertThat(accepted.get(), is(5));
+		assertThat(circuit.getInFlight(), is(5));
+	}
+
+	@Test
+	public void shouldKeepTrialPermitOfSaturatedHalfOpenCircuit() {
+		CircuitConfig config = config(0, 1000);
+		config.setMaxConcurrentCalls(1);
+		circuit = new Circuit(null, config);
+		circuit.callStarted();
+		circuit.handleFailedConnection();
+		clock.advance(1001);
+
+		assertThat(circuit.connectionAvailable(), is(false));
+		circuit.callFinished();
+		assertThat(circuit.connectionAvailable(), is(true));
+	}
+
+	@Test
+	public void shouldRejectCallsOverAdaptiveConcurrencyLimit() {
+		CircuitConfig config = config(100, 1000);
+		config.setAdaptiveConcurrency(true);
+		config.setInitialConcurrencyLimit(2);
+		circuit = new Circuit(null, config);
+		circuit.connectionAvailable();
+		circuit.connectionAvailable();
+		assertThat(circuit.connectionAvailable(), is(false));
+
+		circuit.callFinished();
+		circuit.handleFailedConnection();
+
+		assertThat(circuit.getConcurrencyLimit(), is(1));
+		assertThat(circuit.connectionAvailable(), is(false));
+	}
+
+	@Test
+	public void shouldNotCountFailureOfCallSentBeforeHalfOpenAsFailedProbe() {
+		CircuitConfig config = config(0, 100);
+		config.setBackoffMultiplier(2);
+		config.setMaxResetTimeout(300);
+		circuit = new Circuit(null, config);
+		long sentWhileClosed = circuit.getTrialPeriod();
+		circuit.handleFailedConnection();
+		assertOpenFor(100);
+		long trial = circuit.getTrialPeriod();
+
+		circuit.handleFailedConnection(sentWhileClosed);
+		assertThat(circuit.toString(), containsString("state=CircuitHalfOpen"));
+
+		circuit.handleFailedConnection(trial);
+		assertOpenFor(200);
+	}
+
+	private void assertOpenFor(long duration) {
+		clock.advance(duration);
+		assertThat(circuit.connectionAvailable(), is(false));
+		clock.advance(1);
+		assertThat(circuit.connectionAvailable(), is(true));
 	}
 
 	@Test
@@ -113,14 +447,14 @@ public class CircuitTest {
 	}
 
 	@Test
-	public void shouldReturnCirucitsRepresenationResetTimeout() throws InterruptedException {
+	public void shouldReturnCirucitsRepresenationResetTimeout() {
 		String targetAddress = "http://someUrlABC";
 		long resetTimeout = 50;
 		int failureThreshold = 2;
-		circuit = new Circuit(targetAddress, failureThreshold, resetTimeout);
+		circuit = new Circuit(targetAddress, config(failureThreshold, resetTimeout));
 		circuit.handleFailedConnection();
 		circuit.handleFailedConnection();
-		Thread.sleep(70);
+		clock.advance(70);
 		circuit.connectionAvailable();
 		assertThat(
 				circuit.toString(),
@@ -132,4 +466,189 @@ public class CircuitTest {
 
 	}
 
+	@Test
+	public void shouldNotAllocateOnStateTransitions() {
+		com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		assumeTrue(threadMXBean.isThreadAllocatedMemorySupported()
+				&& threadMXBean.isThreadAllocatedMemoryEnabled());
+		// transition logging is not part of the state machine
+		Logger circuitLogger = Logger.getLogger(Circuit.class);
+		Level level = circuitLogger.getLevel();
+		circuitLogger.setLevel(Level.ERROR);
+		try {
+			circuit = new Circuit(null, 2, -1);
+			long threadId = Thread.currentThread().getId();
+			// warm up until the transitions are compiled, deoptimization may allocate
+			runTransitionCycles(50000);
+			long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+			runTransitionCycles(1000);
+			long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+			assertThat(allocated, is(0l));
+		} finally {
+			circuitLogger.setLevel(level);
+		}
+	}
+
+	private void runTransitionCycles(int cycles) {
+		for (int i = 0; i < cycles; i++) {
+			// closed -> open
+			circuit.handleFailedConnection();
+			circuit.handleFailedConnection();
+			// open -> half open
+			circuit.connectionAvailable();
+			// half open -> closed
+			circuit.handleCallDuration(i % 1000);
+			circuit.handleSuccesfullConnection();
+		}
+	}
+
+	@Test
+	public void shouldNotStayOpenForeverWhenProbeFailsDuringReset() throws Exception {
+		Logger circuitLogger = Logger.getLogger(Circuit.class);
+		Level level = circuitLogger.getLevel();
+		circuitLogger.setLevel(Level.ERROR);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			circuit = new Circuit(null, config(1, 10));
+			circuit.handleFailedConnection();
+			for (int i = 0; i < 5000; i++) {
+				clock.advance(11);
+				final CyclicBarrier start = new CyclicBarrier(2);
+				Future<?> reset = executor.submit(new Callable<Boolean>() {
+					public Boolean call() throws Exception {
+						start.await();
+						return circuit.connectionAvailable();
+					}
+				});
+				Future<?> failure = executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						start.await();
+						circuit.handleFailedConnection();
+						return null;
+					}
+				});
+				reset.get();
+				failure.get();
+
+				clock.advance(11);
+				assertThat("iteration " + i + ", " + circuit, circuit.connectionAvailable(), is(true));
+				circuit.handleFailedConnection();
+			}
+		} finally {
+			executor.shutdownNow();
+			circuitLogger.setLevel(level);
+		}
+	}
+
+	@Test
+	public void shouldKeepTripOfProbeFailingBeforeResetAttemptCompletes() throws Exception {
+		final CountDownLatch halfOpened = new CountDownLatch(1);
+		final CountDownLatch probeFailed = new CountDownLatch(1);
+		AppenderSkeleton resetAttemptPause = new AppenderSkeleton() {
+			@Override
+			protected void append(LoggingEvent event) {
+				if (String.valueOf(event.getMessage()).startsWith("Breaker reset attempt")) {
+					halfOpened.countDown();
+					try {
+						probeFailed.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+
+			public boolean requiresLayout() {
+				return false;
+			}
+
+			public void close() {
+			}
+		};
+		Logger circuitLogger = Logger.getLogger(Circuit.class);
+		Level level = circuitLogger.getLevel();
+		circuit = new Circuit(null, config(1, 10));
+		circuit.handleFailedConnection();
+		clock.advance(11);
+		circuitLogger.setLevel(Level.INFO);
+		circuitLogger.addAppender(resetAttemptPause);
+		try {
+			Thread probe = new Thread() {
+				@Override
+				public void run() {
+					try {
+						halfOpened.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						return;
+					}
+					circuit.handleFailedConnection();
+					probeFailed.countDown();
+				}
+			};
+			probe.start();
+			circuit.connectionAvailable();
+			probe.join();
+		} finally {
+			circuitLogger.removeAppender(resetAttemptPause);
+			circuitLogger.setLevel(level);
+		}
+
+		assertThat(halfOpened.getCount(), is(0L));
+
+		assertThat(circuit.connectionAvailable(), is(false));
+		clock.advance(11);
+		assertThat(circuit.connectionAvailable(), is(true));
+	}
+
+	@Test
+	public void shouldTripOnceOnConcurrentFailures() throws InterruptedException {
+		final AtomicInteger trips = new AtomicInteger();
+		AppenderSkeleton tripCounter = new AppenderSkeleton() {
+			@Override
+			protected void append(LoggingEvent event) {
+				if (event.getLevel() == Level.WARN) {
+					trips.incrementAndGet();
+				}
+			}
+
+			public boolean requiresLayout() {
+				return false;
+			}
+
+			public void close() {
+			}
+		};
+		Logger circuitLogger = Logger.getLogger(Circuit.class);
+		circuitLogger.addAppender(tripCounter);
+		try {
+			circuit = new Circuit(null, 1, 10000);
+			final CountDownLatch start = new CountDownLatch(1);
+			Thread[] threads = new Thread[8];
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							start.await();
+						} catch (InterruptedException e) {
+							return;
+						}
+						circuit.handleFailedConnection();
+					}
+				};
+				threads[i].start();
+			}
+			start.countDown();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			assertThat(circuit.connectionAvailable(), is(false));
+			assertThat(trips.get(), is(1));
+		} finally {
+			circuitLogger.removeAppender(tripCounter);
+		}
+	}
+
 }
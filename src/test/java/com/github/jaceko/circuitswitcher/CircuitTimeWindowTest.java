@@ -0,0 +1,121 @@
+package com.github.jaceko.circuitswitcher;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class CircuitTimeWindowTest {
+
+	private ManualClock clock = new ManualClock();
+	private Circuit circuit = new Circuit("http://someUrl", timeWindowConfig(10000, 40, 5));
+
+	@Test
+	public void shouldTripWhenFailureRateReachesThreshold() {
+		for (int i = 0; i < 6; i++) {
+			circuit.handleSuccesfullConnection();
+		}
+		for (int i = 0; i < 3; i++) {
+			circuit.handleFailedConnection();
+		}
+		assertThat(circuit.connectionAvailable(), is(true));
+		circuit.handleFailedConnection();
+		assertThat(circuit.connectionAvailable(), is(false));
+	}
+
+	@Test
+	public void shouldNotTripBeforeMinimumNumberOfCalls() {
+		for (int i = 0; i < 4; i++) {
+			circuit.handleFailedConnection();
+		}
+		assertThat(circuit.connectionAvailable(), is(true));
+		circuit.handleFailedConnection();
+		assertThat(circuit.connectionAvailable(), is(false));
+	}
+
+	@Test
+	public void shouldForgetCallsOutsideTheWindow() {
+		circuit = new Circuit("http://someUrl", timeWindowConfig(100, 40, 5));
+		for (int i = 0; i < 4; i++) {
+			circuit.handleFailedConnection();
+		}
+		clock.advance(250);
+		circuit.handleFailedConnection();
+		assertThat(circuit.connectionAvailable(), is(true));
+	}
+
+	@Test
+	public void shouldCountCallsRecordedConcurrently() throws InterruptedException {
+		circuit = new Circuit("http://someUrl", timeWindowConfig(10000, 50, 4000));
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 1000; j++) {
+						circuit.handleSuccesfullConnection();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		for (int i = 0; i < 3999; i++) {
+			circuit.handleFailedConnection();
+		}
+		assertThat(circuit.connectionAvailable(), is(true));
+		circuit.handleFailedConnection();
+		assertThat(circuit.connectionAvailable(), is(false));
+	}
+
+	@Test
+	public void shouldCountCallsRacingToStartNewTimeSlice() throws InterruptedException {
+		circuit = new Circuit("http://someUrl", timeWindowConfig(10000, 50, 4000));
+		circuit.handleSuccesfullConnection();
+		clock.advance(20000);
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int j = 0; j < 1000; j++) {
+						circuit.handleSuccesfullConnection();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		for (int i = 0; i < 3999; i++) {
+			circuit.handleFailedConnection();
+		}
+		assertThat(circuit.connectionAvailable(), is(true));
+		circuit.handleFailedConnection();
+		assertThat(circuit.connectionAvailable(), is(false));
+	}
+
+	private CircuitConfig timeWindowConfig(long windowDuration, int failureRateThreshold,
+			int minimumNumberOfCalls) {
+		CircuitConfig config = new CircuitConfig(0, 10000);
+		config.setFailurePolicy(FailurePolicy.TIME_WINDOW);
+		config.setSlidingWindowDuration(windowDuration);
+		config.setFailureRateThreshold(failureRateThreshold);
+		config.setMinimumNumberOfCalls(minimumNumberOfCalls);
+		config.setClock(clock);
+		return config;
+	}
+
+}
@@ -0,0 +1,127 @@
+package com.github.jaceko.circuitswitcher;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class EjectionPolicyTest {
+
+	private Circuit circuitA;
+	private Circuit circuitB;
+	private Circuit circuitC;
+	private List<Circuit> circuits;
+
+	@Test
+	public void shouldNotOpenMoreCircuitsThanMaxEjectionPercent() {
+		useCircuits(1);
+		useEjectionPolicy(new EjectionPolicy(circuits, 50, 0));
+
+		for (int i = 0; i < 5; i++) {
+			circuitA.handleFailedConnection();
+			circuitB.handleFailedConnection();
+			circuitC.handleFailedConnection();
+		}
+
+		assertThat(circuitA.connectionAvailable(), is(false));
+		assertThat(circuitB.connectionAvailable(), is(true));
+		assertThat(circuitC.connectionAvailable(), is(true));
+	}
+
+	@Test
+	public void shouldOpenCircuitOnceOthersHaveRecovered() {
+		useCircuits(1);
+		useEjectionPolicy(new EjectionPolicy(asList(circuitA, circuitB), 50, 0));
+		circuitA.handleFailedConnection();
+		circuitB.handleFailedConnection();
+		assertThat(circuitB.connectionAvailable(), is(true));
+
+		circuitA.healthCheckPassed();
+		circuitB.handleFailedConnection();
+
+		assertThat(circuitB.connectionAvailable(), is(false));
+	}
+
+	@Test
+	public void shouldAlwaysAllowOneEjection() {
+		useCircuits(1);
+		useEjectionPolicy(new EjectionPolicy(circuits, 20, 0));
+
+		circuitA.handleFailedConnection();
+		circuitB.handleFailedConnection();
+
+		assertThat(circuitA.connectionAvailable(), is(false));
+		assertThat(circuitB.connectionAvailable(), is(true));
+	}
+
+	@Test
+	public void shouldNotEjectRecoveredOutlierOnItsFirstFailure() {
+		useCircuits(100);
+		useEjectionPolicy(new EjectionPolicy(circuits, 100, 30));
+		for (int i = 0; i < 10; i++) {
+			circuitA.handleSuccesfullConnection();
+			circuitB.handleSuccesfullConnection();
+			circuitC.handleFailedConnection();
+		}
+		assertThat(circuitC.connectionAvailable(), is(false));
+
+		circuitC.healthCheckPassed();
+		circuitC.handleFailedConnection();
+
+		assertThat(circuitC.connectionAvailable(), is(true));
+	}
+
+	@Test
+	public void shouldEjectOutlierBeforeFailureThreshold() {
+		useCircuits(100);
+		useEjectionPolicy(new EjectionPolicy(circuits, 100, 30));
+
+		for (int i = 0; i < 10; i++) {
+			circuitA.handleSuccesfullConnection();
+			circuitB.handleSuccesfullConnection();
+			circuitC.handleSuccesfullConnection();
+			circuitC.handleFailedConnection();
+		}
+
+		assertThat(circuitA.connectionAvailable(), is(true));
+		assertThat(circuitB.connectionAvailable(), is(true));
+		assertThat(circuitC.connectionAvailable(), is(false));
+	}
+
+	@Test
+	public void shouldNotEjectCircuitsFailingLikeTheirPeers() {
+		useCircuits(100);
+		useEjectionPolicy(new EjectionPolicy(circuits, 100, 30));
+
+		for (int i = 0; i < 10; i++) {
+			for (Circuit circuit : circuits) {
+				circuit.handleSuccesfullConnection();
+				circuit.handleFailedConnection();
+			}
+		}
+
+		for (Circuit circuit : circuits) {
+			assertThat(circuit.connectionAvailable(), is(true));
+		}
+	}
+
+	private void useCircuits(int failureThreshold) {
+		CircuitConfig config = new CircuitConfig(failureThreshold, 10000);
+		config.setMinimumNumberOfCalls(10);
+		config.setSlidingWindowSize(20);
+		circuitA = new Circuit("http://addressA", config);
+		circuitB = new Circuit("http://addressB", config);
+		circuitC = new Circuit("http://addressC", config);
+		circuits = asList(circuitA, circuitB, circuitC);
+	}
+
+	private void useEjectionPolicy(EjectionPolicy policy) {
+		for (Circuit circuit : circuits) {
+			circuit.setEjectionPolicy(policy);
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package com.github.jaceko.circuitswitcher;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpHealthCheckTest {
+
+	private HttpServer server;
+	private String address;
+
+	@Before
+	public void before() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/service/health", respondWith(200));
+		server.createContext("/service/broken", respondWith(503));
+		server.start();
+		address = "http://localhost:" + server.getAddress().getPort() + "/service";
+	}
+
+	@After
+	public void after() {
+		server.stop(0);
+	}
+
+	@Test
+	public void shouldPassOnSuccessfulResponse() {
+		assertThat(new HttpHealthCheck("/health").isHealthy(address), is(true));
+	}
+
+	@Test
+	public void shouldFailOnErrorResponse() {
+		assertThat(new HttpHealthCheck("/broken").isHealthy(address), is(false));
+	}
+
+	@Test
+	public void shouldFailWhenTargetIsDown() {
+		server.stop(0);
+
+		assertThat(new HttpHealthCheck("/health").isHealthy(address), is(false));
+	}
+
+	private static HttpHandler respondWith(final int status) {
+		return new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(status, -1);
+				exchange.close();
+			}
+		};
+	}
+
+}
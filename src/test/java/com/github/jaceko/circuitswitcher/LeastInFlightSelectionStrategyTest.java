@@ -0,0 +1,68 @@
+package com.github.jaceko.circuitswitcher;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class LeastInFlightSelectionStrategyTest {
+
+	private LeastInFlightSelectionStrategy strategy = new LeastInFlightSelectionStrategy();
+	private Circuit circuitA = new Circuit("http://addressA", 1, 10000);
+	private Circuit circuitB = new Circuit("http://addressB", 1, 10000);
+
+	@Test
+	public void shouldSelectCircuitWithFewerCallsInFlight() {
+		List<Circuit> circuits = asList(circuitA, circuitB);
+		circuitA.callStarted();
+
+		for (int i = 0; i < 20; i++) {
+			Circuit selected = strategy.select(circuits);
+			assertThat(selected, is(sameInstance(circuitB)));
+			selected.callFinished();
+		}
+	}
+
+	@Test
+	public void shouldSpreadCallsOverAllCircuits() {
+		Circuit circuitC = new Circuit("http://addressC", 1, 10000);
+		List<Circuit> circuits = asList(circuitA, circuitB, circuitC);
+
+		for (int i = 0; i < 300; i++) {
+			strategy.select(circuits);
+		}
+
+		for (Circuit circuit : circuits) {
+			assertThat(circuit.getInFlight() > 50, is(true));
+		}
+	}
+
+	@Test
+	public void shouldFallBackToAvailableCircuit() {
+		Circuit circuitC = new Circuit("http://addressC", 1, 10000);
+		List<Circuit> circuits = asList(circuitA, circuitB, circuitC);
+		circuitA.handleFailedConnection();
+		circuitC.handleFailedConnection();
+
+		for (int i = 0; i < 20; i++) {
+			Circuit selected = strategy.select(circuits);
+			assertThat(selected, is(sameInstance(circuitB)));
+			selected.callFinished();
+		}
+	}
+
+	@Test
+	public void shouldReturnNullWhenNoCircuitIsAvailable() {
+		circuitA.handleFailedConnection();
+		circuitB.handleFailedConnection();
+
+		assertThat(strategy.select(asList(circuitA, circuitB)), is(nullValue()));
+		assertThat(strategy.select(asList(circuitA)), is(nullValue()));
+	}
+
+}
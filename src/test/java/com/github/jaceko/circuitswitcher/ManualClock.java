@@ -0,0 +1,21 @@
+package com.github.jaceko.circuitswitcher;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clock that only moves when told to, lets tests go past timeouts without
+ * sleeping.
+ */
+public class ManualClock implements Clock {
+
+	private final AtomicLong millis = new AtomicLong(0);
+
+	public long millis() {
+		return millis.get();
+	}
+
+	public void advance(long duration) {
+		millis.addAndGet(duration);
+	}
+
+}
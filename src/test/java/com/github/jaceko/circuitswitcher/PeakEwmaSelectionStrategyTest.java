@@ -0,0 +1,94 @@
+package com.github.jaceko.circuitswitcher;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.Matchers.closeTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class PeakEwmaSelectionStrategyTest {
+
+	private ManualClock clock = new ManualClock();
+	private PeakEwmaSelectionStrategy strategy = new PeakEwmaSelectionStrategy();
+	private Circuit circuitA = new Circuit("http://addressA", config());
+	private Circuit circuitB = new Circuit("http://addressB", config());
+	private List<Circuit> circuits = asList(circuitA, circuitB);
+
+	@Test
+	public void shouldPreferFirstCircuitWithoutMeasurements() {
+		assertThat(strategy.select(circuits), is(sameInstance(circuitA)));
+	}
+
+	@Test
+	public void shouldPenalizeCallsInFlightOfCircuitWithoutMeasurements() {
+		circuitA.callStarted();
+
+		assertThat(strategy.select(circuits), is(sameInstance(circuitB)));
+	}
+
+	@Test
+	public void shouldSelectFastestCircuit() {
+		circuitA.handleCallDuration(100);
+		circuitB.handleCallDuration(10);
+
+		assertThat(strategy.select(circuits), is(sameInstance(circuitB)));
+	}
+
+	@Test
+	public void shouldPenalizeCallsInFlight() {
+		circuitA.handleCallDuration(10);
+		circuitB.handleCallDuration(25);
+		circuitA.callStarted();
+		circuitA.callStarted();
+
+		assertThat(strategy.select(circuits), is(sameInstance(circuitB)));
+		circuitA.callFinished();
+		assertThat(strategy.select(circuits), is(sameInstance(circuitA)));
+	}
+
+	@Test
+	public void shouldSkipOpenCircuit() {
+		circuitA.handleCallDuration(100);
+		circuitB.handleCallDuration(10);
+		circuitB.handleFailedConnection();
+
+		assertThat(strategy.select(circuits), is(sameInstance(circuitA)));
+	}
+
+	@Test
+	public void shouldJumpToPeakAndDecayWithTime() {
+		circuitA.handleCallDuration(10);
+		circuitA.handleCallDuration(100);
+		assertThat(circuitA.getLatencyEstimate(), is(100.0));
+
+		clock.advance(1000);
+		circuitA.handleCallDuration(10);
+		assertThat(circuitA.getLatencyEstimate(), is(closeTo(10 + 90 * Math.exp(-1), 0.001)));
+	}
+
+	@Test
+	public void shouldDecayWithoutSamples() {
+		circuitA.handleCallDuration(100);
+		circuitB.handleCallDuration(50);
+		Circuit selected = strategy.select(circuits);
+		assertThat(selected, is(sameInstance(circuitB)));
+		selected.callFinished();
+
+		clock.advance(1000);
+		assertThat(circuitA.getLatencyEstimate(), is(closeTo(100 * Math.exp(-1), 0.001)));
+		circuitB.handleCallDuration(50);
+		assertThat(strategy.select(circuits), is(sameInstance(circuitA)));
+	}
+
+	private CircuitConfig config() {
+		CircuitConfig config = new CircuitConfig(1, 10000);
+		config.setLatencyDecayTime(1000);
+		config.setClock(clock);
+		return config;
+	}
+
+}
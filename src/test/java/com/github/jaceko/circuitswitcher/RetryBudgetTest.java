@@ -0,0 +1,82 @@
+package com.github.jaceko.circuitswitcher;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RetryBudgetTest {
+
+	@Test
+	public void shouldAllowSavedUpRetries() {
+		RetryBudget budget = new RetryBudget(0.1, 2);
+
+		assertThat(budget.tryAcquire(), is(true));
+		assertThat(budget.tryAcquire(), is(true));
+		assertThat(budget.tryAcquire(), is(false));
+		assertThat(budget.getRetries(), is(2L));
+		assertThat(budget.getExhausted(), is(1L));
+	}
+
+	@Test
+	public void shouldEarnRetriesWithSuccessfulCalls() {
+		RetryBudget budget = new RetryBudget(0.1, 1);
+		budget.tryAcquire();
+
+		for (int i = 0; i < 9; i++) {
+			budget.deposit();
+		}
+		assertThat(budget.tryAcquire(), is(false));
+
+		budget.deposit();
+		assertThat(budget.tryAcquire(), is(true));
+	}
+
+	@Test
+	public void shouldNotSaveUpMoreThanMaxRetries() {
+		RetryBudget budget = new RetryBudget(1, 2);
+
+		for (int i = 0; i < 10; i++) {
+			budget.deposit();
+		}
+
+		assertThat(budget.getBalance(), is(2.0));
+	}
+
+	@Test
+	public void shouldNotHandOutMoreRetriesThanSavedUpConcurrently() throws Exception {
+		final RetryBudget budget = new RetryBudget(0.1, 100);
+		final AtomicInteger granted = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Future<?>[] futures = new Future<?>[4];
+			for (int i = 0; i < futures.length; i++) {
+				futures[i] = executor.submit(new Callable<Void>() {
+					public Void call() {
+						for (int j = 0; j < 1000; j++) {
+							if (budget.tryAcquire()) {
+								granted.incrementAndGet();
+							}
+						}
+						return null;
+					}
+				});
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertThat(granted.get(), is(100));
+		assertThat(budget.getExhausted(), is(3900L));
+	}
+
+}
@@ -0,0 +1,48 @@
+package com.github.jaceko.circuitswitcher;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class RoundRobinSelectionStrategyTest {
+
+	private RoundRobinSelectionStrategy strategy = new RoundRobinSelectionStrategy();
+	private Circuit circuitA = new Circuit("http://addressA", 1, 10000);
+	private Circuit circuitB = new Circuit("http://addressB", 1, 10000);
+	private Circuit circuitC = new Circuit("http://addressC", 1, 10000);
+	private List<Circuit> circuits = asList(circuitA, circuitB, circuitC);
+
+	@Test
+	public void shouldSelectCircuitsInTurn() {
+		assertThat(strategy.select(circuits), is(sameInstance(circuitA)));
+		assertThat(strategy.select(circuits), is(sameInstance(circuitB)));
+		assertThat(strategy.select(circuits), is(sameInstance(circuitC)));
+		assertThat(strategy.select(circuits), is(sameInstance(circuitA)));
+	}
+
+	@Test
+	public void shouldSkipOpenCircuits() {
+		circuitB.handleFailedConnection();
+
+		assertThat(strategy.select(circuits), is(sameInstance(circuitA)));
+		assertThat(strategy.select(circuits), is(sameInstance(circuitC)));
+		assertThat(strategy.select(circuits), is(sameInstance(circuitC)));
+		assertThat(strategy.select(circuits), is(sameInstance(circuitA)));
+	}
+
+	@Test
+	public void shouldReturnNullWhenAllCircuitsAreOpen() {
+		for (Circuit circuit : circuits) {
+			circuit.handleFailedConnection();
+		}
+
+		assertThat(strategy.select(circuits), is(nullValue()));
+	}
+
+}
@@ -0,0 +1,38 @@
+package com.github.jaceko.circuitswitcher;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.net.ServerSocket;
+
+import org.junit.Test;
+
+public class TcpHealthCheckTest {
+
+	private TcpHealthCheck healthCheck = new TcpHealthCheck();
+
+	@Test
+	public void shouldPassWhenPortAcceptsConnections() throws Exception {
+		ServerSocket server = new ServerSocket(0);
+		try {
+			assertThat(healthCheck.isHealthy("http://localhost:" + server.getLocalPort() + "/service"), is(true));
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void shouldFailWhenPortIsClosed() throws Exception {
+		ServerSocket server = new ServerSocket(0);
+		int port = server.getLocalPort();
+		server.close();
+
+		assertThat(healthCheck.isHealthy("http://localhost:" + port + "/service"), is(false));
+	}
+
+	@Test
+	public void shouldFailOnMalformedAddress() {
+		assertThat(healthCheck.isHealthy("not an address"), is(false));
+	}
+
+}
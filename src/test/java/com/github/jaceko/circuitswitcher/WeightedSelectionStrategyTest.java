@@ -0,0 +1,144 @@
+package com.github.jaceko.circuitswitcher;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class WeightedSelectionStrategyTest {
+
+	private WeightedSelectionStrategy strategy = new WeightedSelectionStrategy();
+	private ManualClock clock = new ManualClock();
+	private Circuit circuitA = new Circuit("http://addressA", config());
+	private Circuit circuitB = new Circuit("http://addressB", config());
+	private Circuit circuitC = new Circuit("http://addressC", config());
+
+	@Test
+	public void shouldSpreadCallsInProportionToWeights() {
+		circuitA.setWeight(1);
+		circuitB.setWeight(4);
+		circuitC.setWeight(5);
+		List<Circuit> circuits = asList(circuitA, circuitB, circuitC);
+
+		for (int i = 0; i < 10000; i++) {
+			strategy.select(circuits);
+		}
+
+		assertThat((double) circuitA.getInFlight(), is(closeTo(1000, 200)));
+		assertThat((double) circuitB.getInFlight(), is(closeTo(4000, 300)));
+		assertThat((double) circuitC.getInFlight(), is(closeTo(5000, 300)));
+	}
+
+	@Test
+	public void shouldSkipUnavailableCircuitUntilItRecovers() {
+		List<Circuit> circuits = asList(circuitA, circuitB);
+		circuitA.handleFailedConnection();
+
+		for (int i = 0; i < 20; i++) {
+			assertThat(strategy.select(circuits), is(sameInstance(circuitB)));
+		}
+
+		clock.advance(1001);
+		Circuit probed = null;
+		for (int i = 0; i < 20 && probed != circuitA; i++) {
+			probed = strategy.select(circuits);
+		}
+		assertThat(probed, is(sameInstance(circuitA)));
+	}
+
+	@Test
+	public void shouldNotProbeExcludedCircuitBeforeItMayRecover() {
+		List<Circuit> circuits = asList(circuitA, circuitB);
+		circuitA.handleFailedConnection();
+
+		for (int i = 0; i < 20; i++) {
+			strategy.select(circuits);
+		}
+
+		assertThat(circuitA.getMetrics().snapshot().getRejections(), is(1L));
+	}
+
+	@Test
+	public void shouldKeepTablesOfListsApart() {
+		List<Circuit> circuits = asList(circuitA, circuitB);
+		List<Circuit> otherCircuits = asList(circuitA, circuitC);
+		CircuitSelectionStrategy first = strategy.forCircuits(circuits);
+		CircuitSelectionStrategy second = strategy.forCircuits(otherCircuits);
+		circuitA.handleFailedConnection();
+
+		for (int i = 0; i < 20; i++) {
+			assertThat(first.select(circuits), is(sameInstance(circuitB)));
+			assertThat(second.select(otherCircuits), is(sameInstance(circuitC)));
+		}
+		assertThat(circuitA.getMetrics().snapshot().getRejections(), is(2L));
+	}
+
+	@Test
+	public void shouldKeepSaturatedCircuitInTable() {
+		CircuitConfig config = config();
+		config.setMaxConcurrentCalls(1);
+		Circuit saturated = new Circuit("http://addressS", config);
+		List<Circuit> circuits = asList(saturated, circuitB);
+		assertThat(saturated.connectionAvailable(), is(true));
+
+		for (int i = 0; i < 100; i++) {
+			assertThat(strategy.select(circuits), is(sameInstance(circuitB)));
+		}
+		saturated.callFinished();
+		int selected = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (strategy.select(circuits) == saturated) {
+				selected++;
+				saturated.callFinished();
+			}
+		}
+
+		assertThat(saturated.getMetrics().snapshot().getRejections(), is(greaterThan(1L)));
+		assertThat((double) selected, is(closeTo(500, 100)));
+	}
+
+	@Test
+	public void shouldReturnNullWhenAllCircuitsAreSaturated() {
+		CircuitConfig config = config();
+		config.setMaxConcurrentCalls(1);
+		Circuit first = new Circuit("http://address1", config);
+		Circuit second = new Circuit("http://address2", config);
+		List<Circuit> circuits = asList(first, second);
+
+		strategy.select(circuits);
+		strategy.select(circuits);
+
+		assertThat(strategy.select(circuits), is(nullValue()));
+		first.callFinished();
+		assertThat(strategy.select(circuits), is(sameInstance(first)));
+	}
+
+	@Test
+	public void shouldReturnNullWhenNoCircuitIsAvailable() {
+		circuitA.handleFailedConnection();
+		circuitB.handleFailedConnection();
+		List<Circuit> circuits = asList(circuitA, circuitB);
+
+		assertThat(strategy.select(circuits), is(nullValue()));
+		assertThat(strategy.select(circuits), is(nullValue()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectNonPositiveWeight() {
+		circuitA.setWeight(0);
+	}
+
+	private CircuitConfig config() {
+		CircuitConfig config = new CircuitConfig(1, 1000);
+		config.setClock(clock);
+		return config;
+	}
+
+}
@@ -0,0 +1,205 @@
+package org.apache.cxf.clustering;
+
+import static java.util.Arrays.asList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cxf.Bus;
+import org.apache.cxf.binding.soap.Soap11;
+import org.apache.cxf.binding.soap.SoapMessage;
+import org.apache.cxf.bus.CXFBusImpl;
+import org.apache.cxf.bus.managers.ConduitInitiatorManagerImpl;
+import org.apache.cxf.endpoint.Client;
+import org.apache.cxf.endpoint.Endpoint;
+import org.apache.cxf.endpoint.EndpointException;
+import org.apache.cxf.endpoint.EndpointImpl;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.service.model.BindingInfo;
+import org.apache.cxf.service.model.EndpointInfo;
+import org.apache.cxf.transport.Conduit;
+import org.apache.cxf.transport.ConduitInitiator;
+import org.apache.cxf.transport.ConduitInitiatorManager;
+import org.apache.cxf.transport.http.HTTPTransportFactory;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ * Contention benchmark for {@link CircuitSwitcherTargetSelector}. Runs the
+ * select/complete cycle of a single selector from 1 up to twice the number of
+ * cores threads, next to a baseline that serializes the cycle on the
+ * selector like its synchronized predecessor, and prints the median
+ * throughput of each. The lock free selector should keep scaling where the
+ * baseline flattens out.
+ *
+ * Not part of the build, run it with the benchmark profile:
+ *
+ * <pre>
+ * mvn test -Pbenchmark [-Dbenchmark.maxThreads=16] [-Dbenchmark.iterations=5] [-Dbenchmark.iterationMillis=1000]
+ * </pre>
+ */
+public class CircuitSwitcherTargetSelectorBenchmark {
+	private static final String ENDPOINT_TRANSPORT_ID = "http://cxf.apache.org/transports/http";
+
+	private final int maxThreads = Integer.getInteger("benchmark.maxThreads", Runtime.getRuntime()
+			.availableProcessors() * 2);
+	private final int iterations = Integer.getInteger("benchmark.iterations", 5);
+	private final long iterationMillis = Long.getLong("benchmark.iterationMillis", 1000);
+
+	private final CXFBusImpl bus;
+	private final Endpoint clientEndpoint;
+
+	public CircuitSwitcherTargetSelectorBenchmark() throws EndpointException {
+		bus = new CXFBusImpl();
+		Map<String, ConduitInitiator> conduitInitiators = new HashMap<String, ConduitInitiator>();
+		conduitInitiators.put(ENDPOINT_TRANSPORT_ID, new HTTPTransportFactory(bus));
+		bus.setExtension(new ConduitInitiatorManagerImpl(conduitInitiators), ConduitInitiatorManager.class);
+
+		EndpointInfo clientEndpointInfo = new EndpointInfo();
+		clientEndpointInfo.setAddress("http://abc123");
+		// not a mock, which would record every one of the millions of calls
+		clientEndpoint = new EndpointImpl(bus, null, clientEndpointInfo);
+		// messages read the binding's properties, the endpoint can not create the binding itself
+		clientEndpointInfo.setBinding(new BindingInfo(null, "abc"));
+	}
+
+	@Test
+	public void shouldReportSelectCompleteThroughput() throws Exception {
+		Logger clusteringLogger = Logger.getLogger("org.apache.cxf.clustering");
+		Level level = clusteringLogger.getLevel();
+		clusteringLogger.setLevel(Level.ERROR);
+		try {
+			CircuitSwitcherTargetSelector selector = newSelector(new CircuitSwitcherTargetSelector(asList(
+					"http://address1", "http://address2"), 10000, 3, null));
+			CircuitSwitcherTargetSelector baseline = newSelector(new SynchronizedTargetSelector(asList(
+					"http://address1", "http://address2"), 10000, 3, null));
+			// warm up
+			measure(selector, maxThreads);
+			measure(baseline, maxThreads);
+
+			System.out.println(String.format("%8s %16s %16s", "threads", "lock free ops/s", "baseline ops/s"));
+			for (int threads : threadCounts()) {
+				System.out.println(String.format("%8d %16d %16d", threads, measure(selector, threads),
+						measure(baseline, threads)));
+			}
+		} finally {
+			clusteringLogger.setLevel(level);
+		}
+	}
+
+	/**
+	 * @return powers of two up to maxThreads, followed by maxThreads
+	 */
+	private List<Integer> threadCounts() {
+		List<Integer> threadCounts = new ArrayList<Integer>();
+		for (int threads = 1; threads < maxThreads; threads *= 2) {
+			threadCounts.add(threads);
+		}
+		threadCounts.add(maxThreads);
+		return threadCounts;
+	}
+
+	private CircuitSwitcherTargetSelector newSelector(CircuitSwitcherTargetSelector selector)
+			throws EndpointException {
+		EndpointInfo ei = new EndpointInfo();
+		ei.setTransportId(ENDPOINT_TRANSPORT_ID);
+		selector.setEndpoint(new EndpointImpl(null, null, ei));
+		return selector;
+	}
+
+	/**
+	 * @return median throughput of the iterations, in select/complete
+	 *         cycles per second
+	 */
+	private long measure(CircuitSwitcherTargetSelector selector, int threads) throws InterruptedException {
+		long[] throughput = new long[iterations];
+		for (int i = 0; i < iterations; i++) {
+			throughput[i] = run(selector, threads) * 1000 / iterationMillis;
+		}
+		Arrays.sort(throughput);
+		return throughput[iterations / 2];
+	}
+
+	private long run(final CircuitSwitcherTargetSelector selector, int threads) throws InterruptedException {
+		final AtomicLong operations = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final long end[] = new long[1];
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					long count = 0;
+					while (System.currentTimeMillis() < end[0]) {
+						Message message = newMessage(selector);
+						selector.selectConduit(message);
+						selector.complete(message.getExchange());
+						count++;
+					}
+					operations.addAndGet(count);
+				}
+			};
+			worker.start();
+			workers.add(worker);
+		}
+		end[0] = System.currentTimeMillis() + iterationMillis;
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return operations.get();
+	}
+
+	private Message newMessage(CircuitSwitcherTargetSelector selector) {
+		Message message = new SoapMessage(Soap11.getInstance());
+		message.put(Message.ENDPOINT_ADDRESS, "http://originalAddress/endpoint");
+
+		HashMap<String, Object> ctx = new HashMap<String, Object>();
+		ctx.put(Client.REQUEST_CONTEXT, new HashMap<String, Object>());
+		message.put(Message.INVOCATION_CONTEXT, ctx);
+
+		Exchange exchange = new ExchangeImpl();
+		exchange.setOutMessage(message);
+		exchange.put(Bus.class, bus);
+		exchange.put(Endpoint.class, clientEndpoint);
+		message.setExchange(exchange);
+		message.setContent(List.class, new ArrayList<String>());
+		selector.prepare(message);
+		return message;
+	}
+
+	/**
+	 * Baseline holding the selector lock for the whole select/complete
+	 * cycle, as the selector did before selection became lock free.
+	 */
+	private static class SynchronizedTargetSelector extends CircuitSwitcherTargetSelector {
+
+		SynchronizedTargetSelector(List<String> addressList, long resetTimeout, int failureThreshold,
+				Long receiveTimeout) {
+			super(addressList, resetTimeout, failureThreshold, receiveTimeout);
+		}
+
+		@Override
+		public synchronized Conduit selectConduit(Message message) {
+			return super.selectConduit(message);
+		}
+
+		@Override
+		public synchronized void complete(Exchange exchange) {
+			super.complete(exchange);
+		}
+	}
+}
@@ -2,19 +2,40 @@ package org.apache.cxf.clustering;
 
 import static java.util.Arrays.asList;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.Matchers.isA;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
 
 import org.apache.cxf.Bus;
 import org.apache.cxf.binding.BindingFactoryManager;
@@ -26,6 +47,7 @@ import org.apache.cxf.bus.managers.ConduitInitiatorManagerImpl;
 import org.apache.cxf.clustering.FailoverTargetSelector.InvocationContext;
 import org.apache.cxf.clustering.FailoverTargetSelector.InvocationKey;
 import org.apache.cxf.endpoint.Client;
+import org.apache.cxf.endpoint.ClientCallback;
 import org.apache.cxf.endpoint.Endpoint;
 import org.apache.cxf.endpoint.EndpointException;
 import org.apache.cxf.endpoint.EndpointImpl;
@@ -38,6 +60,7 @@ import org.apache.cxf.message.Message;
 import org.apache.cxf.service.model.BindingInfo;
 import org.apache.cxf.service.model.BindingOperationInfo;
 import org.apache.cxf.service.model.EndpointInfo;
+import org.apache.cxf.transport.Conduit;
 import org.apache.cxf.transport.ConduitInitiator;
 import org.apache.cxf.transport.ConduitInitiatorManager;
 import org.apache.cxf.transport.http.HTTPConduit;
@@ -48,12 +71,32 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.mockito.ArgumentCaptor;
 
+import com.github.jaceko.circuitswitcher.Circuit;
+import com.github.jaceko.circuitswitcher.CircuitConfig;
+import com.github.jaceko.circuitswitcher.CircuitRegistry;
+import com.github.jaceko.circuitswitcher.HealthCheck;
+import com.github.jaceko.circuitswitcher.ManualClock;
+import com.github.jaceko.circuitswitcher.PeakEwmaSelectionStrategy;
+import com.github.jaceko.circuitswitcher.RetryBudget;
+import com.github.jaceko.circuitswitcher.RoundRobinSelectionStrategy;
+import com.github.jaceko.circuitswitcher.WeightedSelectionStrategy;
+
 public class CircuitSwitcherTargetSelectorTest {
 	private static final String ENDPOINT_TRANSPORT_ID = "http://cxf.apache.org/transports/http";
+	private static final Executor DIRECT = new Executor() {
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
 
 	CircuitSwitcherTargetSelector circuitBreakerTargetSelector = new CircuitSwitcherTargetSelector(
 			null, 0, 0, null);
 	private Retryable client;
+	private ManualClock clock = new ManualClock();
 	private Endpoint ep;
 
 	@Before
@@ -184,13 +227,14 @@ public class CircuitSwitcherTargetSelectorTest {
 	}
 
 	@Test
-	public void shouldFailbackAfterResetTimeoutElapsed() throws InterruptedException {
+	public void shouldFailbackAfterResetTimeoutElapsed() {
 		List<String> addresses = new ArrayList<String>();
 		addresses.add("http://addressA");
 		addresses.add("http://addressB");
 		addresses.add("http://addressC");
 		circuitBreakerTargetSelector.setResetTimeout(200l);
 		circuitBreakerTargetSelector.setFailureThreshold(0);
+		circuitBreakerTargetSelector.setClock(clock);
 		circuitBreakerTargetSelector.setAddressList(addresses);
 
 		sendRequestToFirstAvailableAddressAndForceFailure("/endpointCBA");
@@ -199,7 +243,7 @@ public class CircuitSwitcherTargetSelectorTest {
 		assertSendingMessageTo(message, "http://addressB/endpointABC");
 		Message message2 = sendRequestToFirstAvailableAddress("/endpointDEF");
 		assertSendingMessageTo(message2, "http://addressB/endpointDEF");
-		Thread.sleep(250l);
+		clock.advance(250l);
 
 		// failback
 		Message message3 = sendRequestToFirstAvailableAddress("/endpointAAA");
@@ -222,9 +266,353 @@ public class CircuitSwitcherTargetSelectorTest {
 	}
 	
 
+	@Test
+	public void shouldFailoverSelectorsSharingCircuitRegistry() throws Exception {
+		CircuitRegistry registry = new CircuitRegistry();
+		circuitBreakerTargetSelector.setFailureThreshold(1);
+		circuitBreakerTargetSelector.setCircuitRegistry(registry);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
 
-	@Rule
-	public ExpectedException thrown = ExpectedException.none();
+		CircuitSwitcherTargetSelector otherSelector = new CircuitSwitcherTargetSelector(null, 200, 1, null);
+		otherSelector.setEndpoint(ep);
+		otherSelector.setCircuitRegistry(registry);
+		otherSelector.setAddressList(asList("http://addressA", "http://addressB"));
+
+		sendRequestToFirstAvailableAddressAndForceFailure("/resourceABC");
+
+		circuitBreakerTargetSelector = otherSelector;
+		Message message = sendRequestToFirstAvailableAddress("/resourceABC");
+		assertSendingMessageTo(message, "http://addressB/resourceABC");
+		assertThat(registry.size(), is(2));
+	}
+
+	@Test
+	public void shouldShareCircuitsOfSelectorsWithEqualSettings() throws Exception {
+		CircuitRegistry registry = new CircuitRegistry();
+		circuitBreakerTargetSelector.setFailureThreshold(1);
+		circuitBreakerTargetSelector.setCircuitRegistry(registry);
+		circuitBreakerTargetSelector.setMaxEjectionPercent(50);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA;weight=2", "http://addressB"));
+
+		CircuitSwitcherTargetSelector otherSelector = new CircuitSwitcherTargetSelector(null, 200, 1, null);
+		otherSelector.setCircuitRegistry(registry);
+		otherSelector.setMaxEjectionPercent(50);
+		otherSelector.setAddressList(asList("http://addressB", "http://addressA;weight=2"));
+
+		assertThat(otherSelector.getCircuits().get(1), is(sameInstance(circuitBreakerTargetSelector.getCircuits().get(0))));
+		assertThat(otherSelector.getCircuits().get(1).getWeight(), is(2));
+	}
+
+	@Test
+	public void shouldRejectConflictingWeightOfSharedCircuit() throws Exception {
+		CircuitRegistry registry = new CircuitRegistry();
+		circuitBreakerTargetSelector.setFailureThreshold(1);
+		circuitBreakerTargetSelector.setCircuitRegistry(registry);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA;weight=2", "http://addressB"));
+
+		CircuitSwitcherTargetSelector otherSelector = new CircuitSwitcherTargetSelector(null, 200, 1, null);
+		otherSelector.setCircuitRegistry(registry);
+
+		thrown.expect(IllegalStateException.class);
+		otherSelector.setAddressList(asList("http://addressA;weight=3", "http://addressB"));
+	}
+
+	@Test
+	public void shouldRejectConflictingEjectionPolicyOfSharedCircuit() throws Exception {
+		CircuitRegistry registry = new CircuitRegistry();
+		circuitBreakerTargetSelector.setFailureThreshold(1);
+		circuitBreakerTargetSelector.setCircuitRegistry(registry);
+		circuitBreakerTargetSelector.setMaxEjectionPercent(50);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+
+		CircuitSwitcherTargetSelector otherSelector = new CircuitSwitcherTargetSelector(null, 200, 1, null);
+		otherSelector.setCircuitRegistry(registry);
+		otherSelector.setMaxEjectionPercent(50);
+
+		thrown.expect(IllegalStateException.class);
+		otherSelector.setAddressList(asList("http://addressA", "http://addressC"));
+	}
+
+	@Test
+	public void shouldRejectConflictingSettingsOfSharedCircuit() throws Exception {
+		CircuitRegistry registry = new CircuitRegistry();
+		circuitBreakerTargetSelector.setFailureThreshold(1);
+		circuitBreakerTargetSelector.setCircuitRegistry(registry);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+
+		CircuitSwitcherTargetSelector otherSelector = new CircuitSwitcherTargetSelector(null, 200, 3, null);
+		otherSelector.setCircuitRegistry(registry);
+
+		thrown.expect(IllegalStateException.class);
+		otherSelector.setAddressList(asList("http://addressA", "http://addressB"));
+	}
+
+	@Test
+	public void shouldFailoverAfterSlowCall() throws Exception {
+		CircuitConfig config = new CircuitConfig(3, 200);
+		config.setSlowCallDurationThreshold(20);
+		config.setMinimumNumberOfCalls(1);
+		config.setClock(clock);
+		circuitBreakerTargetSelector.setCircuitConfig(config);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+
+		Message message = messageTo("http://originalAddress", "/resourceABC");
+		circuitBreakerTargetSelector.selectConduit(message);
+		clock.advance(50);
+		circuitBreakerTargetSelector.complete(message.getExchange());
+		assertSendingMessageTo(message, "http://addressA/resourceABC");
+
+		message = sendRequestToFirstAvailableAddress("/resourceABC");
+		assertSendingMessageTo(message, "http://addressB/resourceABC");
+	}
+
+	@Test
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void shouldFailoverAsynchronousInvocationOnScheduler() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		circuitBreakerTargetSelector.setScheduler(scheduler);
+		circuitBreakerTargetSelector.setFailureThreshold(0);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+		ClientCallback callback = new ClientCallback();
+		Client asyncClient = mock(Client.class);
+		Message message = asyncMessageTo("/resourceABC", callback, asyncClient);
+
+		circuitBreakerTargetSelector.selectConduit(message);
+		ClientCallback failoverCallback = message.getExchange().get(ClientCallback.class);
+		failoverCallback.handleException(new HashMap<String, Object>(), new Fault(new IOException()));
+
+		ArgumentCaptor<Map> contextCaptor = ArgumentCaptor.forClass(Map.class);
+		verify(asyncClient, timeout(1000)).invoke(same(callback), any(BindingOperationInfo.class),
+				any(Object[].class), contextCaptor.capture(), (Exchange) isNull());
+		Map requestContext = (Map) contextCaptor.getValue().get(Client.REQUEST_CONTEXT);
+		assertThat((String) requestContext.get(Message.ENDPOINT_ADDRESS), is("http://addressB"));
+		assertThat(callback.isDone(), is(false));
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void shouldPassNonConnectionFailureToAsynchronousCaller() throws Exception {
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+		ClientCallback callback = new ClientCallback();
+		Client asyncClient = mock(Client.class);
+		Message message = asyncMessageTo("/resourceABC", callback, asyncClient);
+
+		circuitBreakerTargetSelector.selectConduit(message);
+		message.getExchange().get(ClientCallback.class)
+				.handleException(new HashMap<String, Object>(), new IllegalStateException());
+
+		assertThat(callback.isDone(), is(true));
+		verifyZeroInteractions(asyncClient);
+	}
+
+	@Test
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void shouldHedgeSlowAsynchronousInvocation() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		circuitBreakerTargetSelector.setScheduler(scheduler);
+		circuitBreakerTargetSelector.setHedgeDelay(10);
+		circuitBreakerTargetSelector.setHedgedOperations(asList("getResource"));
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+		ClientCallback callback = new ClientCallback();
+		Client asyncClient = mock(Client.class);
+		Message message = asyncMessageTo("/resourceABC", callback, asyncClient, operation("getResource"));
+		circuitBreakerTargetSelector.selectConduit(message);
+
+		ArgumentCaptor<ClientCallback> hedgeCallbackCaptor = ArgumentCaptor.forClass(ClientCallback.class);
+		ArgumentCaptor<Map> contextCaptor = ArgumentCaptor.forClass(Map.class);
+		verify(asyncClient, timeout(1000)).invoke(hedgeCallbackCaptor.capture(), any(BindingOperationInfo.class),
+				any(Object[].class), contextCaptor.capture(), (Exchange) isNull());
+		Map requestContext = (Map) contextCaptor.getValue().get(Client.REQUEST_CONTEXT);
+		assertThat((String) requestContext.get(Message.ENDPOINT_ADDRESS), is("http://addressB"));
+
+		hedgeCallbackCaptor.getValue().handleResponse(new HashMap<String, Object>(), new Object[] { "hedge" });
+		ClientCallback primaryCallback = message.getExchange().get(ClientCallback.class);
+		assertThat(primaryCallback.isCancelled(), is(true));
+		primaryCallback.handleResponse(new HashMap<String, Object>(), new Object[] { "primary" });
+		assertThat(callback.get()[0], is((Object) "hedge"));
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void shouldNotSpendRetryBudgetWithoutHedgeTarget() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		RetryBudget retryBudget = new RetryBudget(0.5, 1);
+		circuitBreakerTargetSelector.setScheduler(scheduler);
+		circuitBreakerTargetSelector.setRetryBudget(retryBudget);
+		circuitBreakerTargetSelector.setHedgeDelay(1);
+		circuitBreakerTargetSelector.setHedgedOperations(asList("getResource"));
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA"));
+		Client asyncClient = mock(Client.class);
+		Message message = asyncMessageTo("/resourceABC", new ClientCallback(), asyncClient, operation("getResource"));
+		circuitBreakerTargetSelector.selectConduit(message);
+
+		scheduler.shutdown();
+		scheduler.awaitTermination(1, TimeUnit.SECONDS);
+		verifyZeroInteractions(asyncClient);
+		assertThat(retryBudget.getRetries(), is(0L));
+		assertThat(retryBudget.tryAcquire(), is(true));
+	}
+
+	@Test
+	public void shouldNotHedgeOperationsNotListed() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		circuitBreakerTargetSelector.setScheduler(scheduler);
+		circuitBreakerTargetSelector.setHedgeDelay(1);
+		circuitBreakerTargetSelector.setHedgedOperations(asList("getResource"));
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+		Client asyncClient = mock(Client.class);
+		Message message = asyncMessageTo("/resourceABC", new ClientCallback(), asyncClient,
+				operation("updateResource"));
+		circuitBreakerTargetSelector.selectConduit(message);
+
+		scheduler.shutdown();
+		scheduler.awaitTermination(1, TimeUnit.SECONDS);
+		verifyZeroInteractions(asyncClient);
+	}
+
+	@Test
+	public void shouldSpreadRequestsWithRoundRobinStrategy() {
+		circuitBreakerTargetSelector.setSelectionStrategy(new RoundRobinSelectionStrategy());
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+
+		assertSendingMessageTo(sendRequestToFirstAvailableAddress("/resourceABC"), "http://addressA/resourceABC");
+		assertSendingMessageTo(sendRequestToFirstAvailableAddress("/resourceABC"), "http://addressB/resourceABC");
+		assertSendingMessageTo(sendRequestToFirstAvailableAddress("/resourceABC"), "http://addressA/resourceABC");
+	}
+
+	@Test
+	public void shouldPreferFasterCircuitWithPeakEwmaStrategy() {
+		circuitBreakerTargetSelector.setSelectionStrategy(new PeakEwmaSelectionStrategy());
+		circuitBreakerTargetSelector.setClock(clock);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+
+		Message message = messageTo("http://originalAddress", "/resourceABC");
+		circuitBreakerTargetSelector.selectConduit(message);
+		clock.advance(100);
+		circuitBreakerTargetSelector.complete(message.getExchange());
+		assertSendingMessageTo(message, "http://addressA/resourceABC");
+
+		assertSendingMessageTo(sendRequestToFirstAvailableAddress("/resourceABC"), "http://addressB/resourceABC");
+		assertSendingMessageTo(sendRequestToFirstAvailableAddress("/resourceABC"), "http://addressB/resourceABC");
+	}
+
+	@Test
+	public void shouldStripWeightFromAddress() {
+		circuitBreakerTargetSelector.setSelectionStrategy(new WeightedSelectionStrategy());
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA;weight=4"));
+
+		assertSendingMessageTo(sendRequestToFirstAvailableAddress("/resourceABC"), "http://addressA/resourceABC");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectNonPositiveWeight() {
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA;weight=0"));
+	}
+
+	@Test
+	public void shouldNotModifyEndpointInThreadSafeMode() throws Exception {
+		circuitBreakerTargetSelector.setThreadSafe(true);
+		circuitBreakerTargetSelector.setFailureThreshold(0);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+
+		Message message = sendRequestToFirstAvailableAddressAndForceFailure("/resourceABC");
+		assertSendingMessageTo(message, "http://addressA/resourceABC");
+		verifyRertyToNode("http://addressB");
+
+		Message message2 = sendRequestToFirstAvailableAddress("/resourceABC");
+		assertSendingMessageTo(message2, "http://addressB/resourceABC");
+		assertThat(ep.getEndpointInfo().getAddress(), is(nullValue()));
+	}
+
+	@Test
+	public void shouldReuseCircuitConduitInThreadSafeMode() {
+		circuitBreakerTargetSelector.setThreadSafe(true);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA"));
+
+		Conduit conduit = circuitBreakerTargetSelector.selectConduit(messageTo("http://abc", "/first"));
+		Conduit conduit2 = circuitBreakerTargetSelector.selectConduit(messageTo("http://abc", "/second"));
+
+		assertThat(conduit2, is(sameInstance(conduit)));
+		assertThat(conduit.getTarget().getAddress().getValue(), is("http://addressA"));
+	}
+
+	@Test
+	public void shouldSetReceiveTimeoutOnMessageInThreadSafeMode() {
+		circuitBreakerTargetSelector.setThreadSafe(true);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA"));
+		long receiveTimeout = 500l;
+		circuitBreakerTargetSelector.setReceiveTimeout(receiveTimeout);
+
+		Message message = messageTo("http://abc", "");
+		HTTPConduit conduit = (HTTPConduit) circuitBreakerTargetSelector.selectConduit(message);
+		assertThat((Long) message.get(Message.RECEIVE_TIMEOUT), is(receiveTimeout));
+		assertThat(conduit.getClient().getReceiveTimeout(), is(not(receiveTimeout)));
+	}
+
+	@Test
+	public void shouldSelectConduitsConcurrently() throws Exception {
+		circuitBreakerTargetSelector.setFailureThreshold(3);
+		circuitBreakerTargetSelector.setAddressList(asList("http://address1", "http://address2"));
+
+		int threads = 8;
+		final int requestsPerThread = 100;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < threads; i++) {
+			results.add(executor.submit(new Callable<Integer>() {
+				public Integer call() {
+					int sentToFirstAddress = 0;
+					for (int j = 0; j < requestsPerThread; j++) {
+						Message message = sendRequestToFirstAvailableAddress("/endpoint" + j);
+						if (("http://address1/endpoint" + j).equals(message.get(Message.ENDPOINT_ADDRESS))) {
+							sentToFirstAddress++;
+						}
+					}
+					return sentToFirstAddress;
+				}
+			}));
+		}
+		int sentToFirstAddress = 0;
+		for (Future<Integer> result : results) {
+			sentToFirstAddress += result.get();
+		}
+		executor.shutdown();
+
+		assertThat(sentToFirstAddress, is(threads * requestsPerThread));
+		assertThat(circuitBreakerTargetSelector.inProgress.isEmpty(), is(true));
+	}
+
+	@Test
+	public void shouldNotCreateDuplicateConduitsWhenSelectingConcurrently() throws Exception {
+		circuitBreakerTargetSelector.setAddressList(asList("http://address1"));
+
+		int threads = 8;
+		final int requestsPerThread = 50;
+		final CountDownLatch start = new CountDownLatch(1);
+		final Set<Conduit> selected = Collections.newSetFromMap(new ConcurrentHashMap<Conduit, Boolean>());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for (int i = 0; i < threads; i++) {
+			results.add(executor.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					start.await();
+					for (int j = 0; j < requestsPerThread; j++) {
+						Message message = messageTo("http://originalAddress", "/endpoint");
+						selected.add(circuitBreakerTargetSelector.selectConduit(message));
+						circuitBreakerTargetSelector.complete(message.getExchange());
+					}
+					return null;
+				}
+			}));
+		}
+		start.countDown();
+		for (Future<?> result : results) {
+			result.get();
+		}
+		executor.shutdown();
+
+		assertThat(selected.size(), is(1));
+	}
 
 	@Test
 	public void shouldThrowExceptionIfNoMoreNodesToFailover() {
@@ -245,6 +633,243 @@ public class CircuitSwitcherTargetSelectorTest {
 		sendRequestToFirstAvailableAddressAndForceFailure("/endpointAAA");
 	}
 
+	@Test
+	public void shouldCloseOpenCircuitPassingHealthCheck() {
+		HealthCheck healthCheck = mock(HealthCheck.class);
+		when(healthCheck.isHealthy("http://addressA")).thenReturn(true);
+		circuitBreakerTargetSelector.setHealthCheck(healthCheck);
+		circuitBreakerTargetSelector.setFailureThreshold(0);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+		sendRequestToFirstAvailableAddressAndForceFailure("/endpointAAA");
+
+		circuitBreakerTargetSelector.checkHealth(DIRECT);
+
+		assertSendingMessageTo(sendRequestToFirstAvailableAddress("/endpointAAA"), "http://addressA/endpointAAA");
+		verify(healthCheck, never()).isHealthy("http://addressB");
+	}
+
+	@Test
+	public void shouldKeepCircuitFailingHealthCheckOpen() {
+		HealthCheck healthCheck = mock(HealthCheck.class);
+		when(healthCheck.isHealthy("http://addressA")).thenReturn(false);
+		circuitBreakerTargetSelector.setHealthCheck(healthCheck);
+		circuitBreakerTargetSelector.setFailureThreshold(0);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+		sendRequestToFirstAvailableAddressAndForceFailure("/endpointAAA");
+
+		circuitBreakerTargetSelector.checkHealth(DIRECT);
+
+		assertSendingMessageTo(sendRequestToFirstAvailableAddress("/endpointAAA"), "http://addressB/endpointAAA");
+	}
+
+	@Test
+	public void shouldRunHealthChecksInBackground() {
+		HealthCheck healthCheck = mock(HealthCheck.class);
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		circuitBreakerTargetSelector.setHealthCheckScheduler(scheduler);
+		circuitBreakerTargetSelector.setHealthCheck(healthCheck);
+		circuitBreakerTargetSelector.setHealthCheckInterval(10);
+		circuitBreakerTargetSelector.setFailureThreshold(0);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+		sendRequestToFirstAvailableAddressAndForceFailure("/endpointAAA");
+
+		circuitBreakerTargetSelector.startHealthChecks();
+
+		try {
+			verify(healthCheck, timeout(1000).atLeast(2)).isHealthy("http://addressA");
+		} finally {
+			circuitBreakerTargetSelector.close();
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void shouldNotHoldUpHealthChecksBehindNodeThatDoesNotAnswer() throws Exception {
+		final CountDownLatch released = new CountDownLatch(1);
+		HealthCheck healthCheck = new HealthCheck() {
+			public boolean isHealthy(String address) {
+				if (address.equals("http://addressA")) {
+					try {
+						released.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return false;
+				}
+				return true;
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		circuitBreakerTargetSelector.setHealthCheck(healthCheck);
+		circuitBreakerTargetSelector.setFailureThreshold(0);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB",
+				"http://addressC"));
+		sendRequestToFirstAvailableAddressAndForceFailure("/endpointAAA");
+		sendRequestToFirstAvailableAddressAndForceFailure("/endpointAAA");
+
+		try {
+			circuitBreakerTargetSelector.checkHealth(executor);
+			circuitBreakerTargetSelector.checkHealth(executor);
+			executor.shutdown();
+			assertThat(executor.awaitTermination(100, TimeUnit.MILLISECONDS), is(false));
+			assertSendingMessageTo(sendRequestToFirstAvailableAddress("/endpointAAA"),
+					"http://addressB/endpointAAA");
+		} finally {
+			released.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void shouldKeepNodesAvailableUpToMaxEjectionPercent() {
+		circuitBreakerTargetSelector.setFailureThreshold(0);
+		circuitBreakerTargetSelector.setMaxEjectionPercent(50);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+
+		assertSendingMessageTo(sendRequestToFirstAvailableAddressAndForceFailure("/endpointAAA"),
+				"http://addressA/endpointAAA");
+		assertSendingMessageTo(sendRequestToFirstAvailableAddressAndForceFailure("/endpointAAA"),
+				"http://addressB/endpointAAA");
+		assertSendingMessageTo(sendRequestToFirstAvailableAddressAndForceFailure("/endpointAAA"),
+				"http://addressB/endpointAAA");
+	}
+
+	@Test
+	public void shouldNotFailOverOnceRetryBudgetIsSpent() {
+		RetryBudget retryBudget = new RetryBudget(0.5, 1);
+		circuitBreakerTargetSelector.setRetryBudget(retryBudget);
+		circuitBreakerTargetSelector.setFailureThreshold(100);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+
+		sendRequestToFirstAvailableAddressAndForceFailure("/endpointAAA");
+		sendRequestToFirstAvailableAddressAndForceFailure("/endpointAAA");
+		assertThat(retryBudget.getRetries(), is(1L));
+		assertThat(retryBudget.getExhausted(), is(1L));
+
+		sendRequestToFirstAvailableAddress("/endpointAAA");
+		sendRequestToFirstAvailableAddress("/endpointAAA");
+		sendRequestToFirstAvailableAddressAndForceFailure("/endpointAAA");
+		assertThat(retryBudget.getRetries(), is(2L));
+	}
+
+	@Test
+	public void shouldReleaseFailoverTargetDroppedForLackOfRetryBudget() {
+		circuitBreakerTargetSelector.setRetryBudget(new RetryBudget(0.5, 0));
+		circuitBreakerTargetSelector.setFailureThreshold(100);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+
+		sendRequestToFirstAvailableAddressAndForceFailure("/endpointAAA");
+
+		for (Circuit circuit : circuitBreakerTargetSelector.getCircuits()) {
+			assertThat(circuit.getInFlight(), is(0));
+		}
+	}
+
+	@Test
+	public void shouldNotSpendRetryBudgetWithoutFailoverTarget() {
+		RetryBudget retryBudget = new RetryBudget(0.5, 1);
+		circuitBreakerTargetSelector.setRetryBudget(retryBudget);
+		circuitBreakerTargetSelector.setFailureThreshold(0);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA"));
+
+		sendRequestToFirstAvailableAddressAndForceFailure("/endpointAAA");
+		assertThat(retryBudget.getRetries(), is(0L));
+		assertThat(retryBudget.getExhausted(), is(0L));
+	}
+
+	@Test
+	public void shouldSkipSaturatedNodeUntilItsCallCompletes() {
+		CircuitConfig config = new CircuitConfig(1, 200);
+		config.setMaxConcurrentCalls(1);
+		circuitBreakerTargetSelector.setCircuitConfig(config);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+
+		Message first = messageTo("http://originalAddress", "/endpointAAA");
+		circuitBreakerTargetSelector.selectConduit(first);
+		Message second = messageTo("http://originalAddress", "/endpointAAA");
+		circuitBreakerTargetSelector.selectConduit(second);
+		assertSendingMessageTo(first, "http://addressA/endpointAAA");
+		assertSendingMessageTo(second, "http://addressB/endpointAAA");
+
+		circuitBreakerTargetSelector.complete(first.getExchange());
+		assertSendingMessageTo(sendRequestToFirstAvailableAddress("/endpointAAA"), "http://addressA/endpointAAA");
+	}
+
+	@Test
+	public void shouldFailFastWhenAllNodesAreSaturated() {
+		CircuitConfig config = new CircuitConfig(1, 200);
+		config.setMaxConcurrentCalls(1);
+		circuitBreakerTargetSelector.setCircuitConfig(config);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA"));
+		circuitBreakerTargetSelector.selectConduit(messageTo("http://originalAddress", "/endpointAAA"));
+
+		thrown.expect(Fault.class);
+		thrown.expectCause(isA(IOException.class));
+		circuitBreakerTargetSelector.selectConduit(messageTo("http://originalAddress", "/endpointAAA"));
+	}
+
+	@Test
+	public void shouldFailOverOnlyTheFailingOperationInPerOperationMode() {
+		circuitBreakerTargetSelector.setPerOperationCircuits(true);
+		circuitBreakerTargetSelector.setFailureThreshold(0);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+		BindingOperationInfo expensive = operation("expensive");
+		BindingOperationInfo cheap = operation("cheap");
+
+		Message failing = messageTo("/endpointAAA", expensive);
+		failing.put(Exception.class, new IOException());
+		circuitBreakerTargetSelector.selectConduit(failing);
+		circuitBreakerTargetSelector.complete(failing.getExchange());
+
+		assertSendingMessageTo(sendRequest(messageTo("/endpointAAA", expensive)), "http://addressB/endpointAAA");
+		assertSendingMessageTo(sendRequest(messageTo("/endpointAAA", cheap)), "http://addressA/endpointAAA");
+		assertSendingMessageTo(sendRequestToFirstAvailableAddress("/endpointAAA"), "http://addressA/endpointAAA");
+	}
+
+	@Test
+	public void shouldExposeCircuitsOfEachOperation() {
+		circuitBreakerTargetSelector.setPerOperationCircuits(true);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+
+		sendRequest(messageTo("/endpointAAA", operation("expensive")));
+
+		Map<String, List<Circuit>> circuitsByOperation = circuitBreakerTargetSelector.getCircuitsByOperation();
+		assertThat(circuitsByOperation.keySet(), is(Collections.singleton("{http://circuitswitcher}expensive")));
+		Circuit circuit = circuitsByOperation.get("{http://circuitswitcher}expensive").get(0);
+		assertThat(circuit.getTargetAddress(), is("http://addressA"));
+		assertThat(circuit.getMetrics().snapshot().getSuccesses(), is(1L));
+		assertThat(circuitBreakerTargetSelector.getCircuits().get(0).getMetrics().snapshot().getCalls(), is(0L));
+	}
+
+	@Test
+	public void shouldRecordFailoverInMetricsOfFailedCircuit() {
+		circuitBreakerTargetSelector.setFailureThreshold(100);
+		circuitBreakerTargetSelector.setAddressList(asList("http://addressA", "http://addressB"));
+
+		sendRequestToFirstAvailableAddressAndForceFailure("/endpointAAA");
+
+		List<Circuit> circuits = circuitBreakerTargetSelector.getCircuits();
+		assertThat(circuits.get(0).getMetrics().snapshot().getFailures(), is(1L));
+		assertThat(circuits.get(0).getMetrics().snapshot().getFailovers(), is(1L));
+		assertThat(circuits.get(1).getMetrics().snapshot().getFailovers(), is(0L));
+	}
+
+	private Message sendRequest(Message message) {
+		circuitBreakerTargetSelector.selectConduit(message);
+		circuitBreakerTargetSelector.complete(message.getExchange());
+		return message;
+	}
+
+	private Message messageTo(String requestPath, BindingOperationInfo operation) {
+		Message message = messageTo("http://originalAddress", requestPath);
+		Exchange exchange = message.getExchange();
+		// register the invocation again, now with its operation
+		exchange.put(BindingOperationInfo.class, operation);
+		circuitBreakerTargetSelector.inProgress.remove(new InvocationKey(exchange));
+		circuitBreakerTargetSelector.prepare(message);
+		return message;
+	}
+
 	private Message sendRequestToFirstAvailableAddressAndForceFailure(String requestPath) {
 		Message message = messageTo("http://originalAddress", requestPath);
 		message.put(Exception.class, new IOException());
@@ -304,6 +929,31 @@ public class CircuitSwitcherTargetSelectorTest {
 		return message;
 	}
 
+	private Message asyncMessageTo(String requestPath, ClientCallback callback, Client asyncClient) {
+		return asyncMessageTo(requestPath, callback, asyncClient, null);
+	}
+
+	private Message asyncMessageTo(String requestPath, ClientCallback callback, Client asyncClient,
+			BindingOperationInfo operation) {
+		Message message = messageTo("http://originalAddress", requestPath);
+		Exchange exchange = message.getExchange();
+		exchange.put(ClientCallback.class, callback);
+		exchange.put(Client.class, asyncClient);
+		if (operation != null) {
+			// register the invocation again, now with its operation
+			exchange.put(BindingOperationInfo.class, operation);
+			circuitBreakerTargetSelector.inProgress.remove(new InvocationKey(exchange));
+		}
+		circuitBreakerTargetSelector.prepare(message);
+		return message;
+	}
+
+	private BindingOperationInfo operation(String name) {
+		BindingOperationInfo operation = mock(BindingOperationInfo.class);
+		when(operation.getName()).thenReturn(new QName("http://circuitswitcher", name));
+		return operation;
+	}
+
 	private Exchange exchange(Message message) {
 		Exchange exchange = new ExchangeImpl();
 		exchange.setOutMessage(message);